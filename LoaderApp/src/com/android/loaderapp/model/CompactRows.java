@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.loaderapp.model;
+
+import android.content.ContentValues;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Column-oriented store of "before" rows sharing one
+ * {@link android.provider.ContactsContract.Data#MIMETYPE}, used by
+ * {@link EntityDelta.ValuesDelta} in place of a {@link ContentValues} per
+ * row. One table holds that mimetype's rows for a whole {@link EntitySet},
+ * so each column name is stored once; names are interned, so lookups
+ * usually match by reference. Columns holding only {@link Long} or
+ * {@link Integer} values are kept as primitive longs. Rows are immutable
+ * once added; call {@link #trimToSize()} when done adding them.
+ */
+/* package */ final class CompactRows {
+    private static final String TAG = "CompactRows";
+
+    private static final int TYPE_NONE = 0;
+    private static final int TYPE_LONG = 1;
+    private static final int TYPE_INT = 2;
+    private static final int TYPE_OBJECT = 3;
+
+    private static final String[] EMPTY_NAMES = new String[0];
+
+    private String[] mNames = EMPTY_NAMES;
+    private int[] mTypes = new int[0];
+    private long[][] mLongs = new long[0][];
+    private Object[][] mObjects = new Object[0][];
+    /** Per column, bit set for each row where the column is present. */
+    private long[][] mPresent = new long[0][];
+
+    private int mRowCount;
+    private int mRowCapacity;
+
+    /**
+     * Copy the given values into a new row, returning its index.
+     */
+    public int addRow(ContentValues values) {
+        final int row = mRowCount++;
+        if (row == mRowCapacity) {
+            // Grow gently; trimToSize() drops the slack afterwards
+            mRowCapacity = mRowCapacity + (mRowCapacity >> 1) + 1;
+        }
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            set(column(entry.getKey()), row, entry.getValue());
+        }
+        return row;
+    }
+
+    /**
+     * Shrink every column to the current row count.
+     */
+    public void trimToSize() {
+        mRowCapacity = mRowCount;
+        for (int col = 0; col < mNames.length; col++) {
+            if (mLongs[col] != null && mLongs[col].length > mRowCount) {
+                mLongs[col] = Arrays.copyOf(mLongs[col], mRowCount);
+            }
+            if (mObjects[col] != null && mObjects[col].length > mRowCount) {
+                mObjects[col] = Arrays.copyOf(mObjects[col], mRowCount);
+            }
+            if (mPresent[col] != null && mPresent[col].length > words(mRowCount)) {
+                mPresent[col] = Arrays.copyOf(mPresent[col], words(mRowCount));
+            }
+        }
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Return the column for the given name, or -1 when missing.
+     */
+    private int find(String key) {
+        final String[] names = mNames;
+        for (int col = 0; col < names.length; col++) {
+            if (names[col] == key) return col;
+        }
+        for (int col = 0; col < names.length; col++) {
+            if (names[col].equals(key)) return col;
+        }
+        return -1;
+    }
+
+    private int column(String key) {
+        final int existing = find(key);
+        if (existing != -1) return existing;
+
+        final int col = mNames.length;
+        mNames = Arrays.copyOf(mNames, col + 1);
+        mNames[col] = key.intern();
+        mTypes = Arrays.copyOf(mTypes, col + 1);
+        mLongs = Arrays.copyOf(mLongs, col + 1);
+        mObjects = Arrays.copyOf(mObjects, col + 1);
+        mPresent = Arrays.copyOf(mPresent, col + 1);
+        return col;
+    }
+
+    private void set(int col, int row, Object value) {
+        if (mTypes[col] == TYPE_NONE) {
+            mTypes[col] = (value instanceof Long) ? TYPE_LONG
+                    : (value instanceof Integer) ? TYPE_INT : TYPE_OBJECT;
+        }
+        final int type = mTypes[col];
+        if ((type == TYPE_LONG && value instanceof Long)
+                || (type == TYPE_INT && value instanceof Integer)) {
+            if (mLongs[col] == null || mLongs[col].length < mRowCapacity) {
+                mLongs[col] = grow(mLongs[col], mRowCapacity);
+            }
+            mLongs[col][row] = ((Number)value).longValue();
+        } else {
+            if (type != TYPE_OBJECT) toObjects(col);
+            if (mObjects[col] == null || mObjects[col].length < mRowCapacity) {
+                mObjects[col] = (mObjects[col] == null) ? new Object[mRowCapacity]
+                        : Arrays.copyOf(mObjects[col], mRowCapacity);
+            }
+            mObjects[col][row] = value;
+        }
+
+        // Only after storing, so toObjects() above never boxes this row
+        if (mPresent[col] == null || mPresent[col].length < words(mRowCapacity)) {
+            mPresent[col] = grow(mPresent[col], words(mRowCapacity));
+        }
+        mPresent[col][row >> 6] |= 1L << row;
+    }
+
+    /**
+     * Box an existing primitive column, once it meets a value of another type.
+     */
+    private void toObjects(int col) {
+        final Object[] objects = new Object[mRowCapacity];
+        final long[] longs = mLongs[col];
+        for (int row = 0; row < mRowCount; row++) {
+            if (longs != null && isPresent(col, row)) {
+                objects[row] = box(col, longs[row]);
+            }
+        }
+        mObjects[col] = objects;
+        mLongs[col] = null;
+        mTypes[col] = TYPE_OBJECT;
+    }
+
+    private Object box(int col, long value) {
+        return (mTypes[col] == TYPE_INT) ? (Object)Integer.valueOf((int)value)
+                : (Object)Long.valueOf(value);
+    }
+
+    private boolean isPresent(int col, int row) {
+        // A column's bitmap only grows as far as its last value, so sparse
+        // columns are shorter than the table.
+        final long[] present = mPresent[col];
+        final int word = row >> 6;
+        return present != null && word < present.length
+                && (present[word] & (1L << row)) != 0;
+    }
+
+    private int present(int row, String key) {
+        final int col = find(key);
+        return (col != -1 && isPresent(col, row)) ? col : -1;
+    }
+
+    public boolean containsKey(int row, String key) {
+        return present(row, key) != -1;
+    }
+
+    /**
+     * Same conversions as {@link ContentValues#getAsString(String)}.
+     */
+    public String getAsString(int row, String key) {
+        final int col = present(row, key);
+        if (col == -1) return null;
+        if (mTypes[col] != TYPE_OBJECT) return Long.toString(mLongs[col][row]);
+        final Object value = mObjects[col][row];
+        return (value != null) ? value.toString() : null;
+    }
+
+    /**
+     * Same conversions as {@link ContentValues#getAsLong(String)}.
+     */
+    public Long getAsLong(int row, String key) {
+        final int col = present(row, key);
+        if (col == -1) return null;
+        if (mTypes[col] != TYPE_OBJECT) return mLongs[col][row];
+        final Object value = mObjects[col][row];
+        if (value instanceof Number) return ((Number)value).longValue();
+        if (value instanceof CharSequence) {
+            try {
+                return Long.valueOf(value.toString());
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Cannot parse Long value for " + value + " at key " + key);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same conversions as {@link ContentValues#getAsInteger(String)}.
+     */
+    public Integer getAsInteger(int row, String key) {
+        final int col = present(row, key);
+        if (col == -1) return null;
+        if (mTypes[col] != TYPE_OBJECT) return (int)mLongs[col][row];
+        final Object value = mObjects[col][row];
+        if (value instanceof Number) return ((Number)value).intValue();
+        if (value instanceof CharSequence) {
+            try {
+                return Integer.valueOf(value.toString());
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Cannot parse Integer value for " + value + " at key " + key);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same conversions as {@link ContentValues#getAsByteArray(String)}.
+     */
+    public byte[] getAsByteArray(int row, String key) {
+        final int col = present(row, key);
+        if (col == -1 || mTypes[col] != TYPE_OBJECT) return null;
+        final Object value = mObjects[col][row];
+        return (value instanceof byte[]) ? (byte[])value : null;
+    }
+
+    public void addKeysTo(int row, Set<String> keys) {
+        for (int col = 0; col < mNames.length; col++) {
+            if (isPresent(col, row)) keys.add(mNames[col]);
+        }
+    }
+
+    /**
+     * Copy the given row into the given {@link ContentValues}, with the
+     * value types it was added with.
+     */
+    public void copyTo(int row, ContentValues values) {
+        for (int col = 0; col < mNames.length; col++) {
+            if (!isPresent(col, row)) continue;
+            final String key = mNames[col];
+            switch (mTypes[col]) {
+                case TYPE_LONG:
+                    values.put(key, mLongs[col][row]);
+                    break;
+                case TYPE_INT:
+                    values.put(key, (int)mLongs[col][row]);
+                    break;
+                default:
+                    putObject(values, key, mObjects[col][row]);
+                    break;
+            }
+        }
+    }
+
+    private static void putObject(ContentValues values, String key, Object value) {
+        if (value == null) {
+            values.putNull(key);
+        } else if (value instanceof String) {
+            values.put(key, (String)value);
+        } else if (value instanceof byte[]) {
+            values.put(key, (byte[])value);
+        } else if (value instanceof Long) {
+            values.put(key, (Long)value);
+        } else if (value instanceof Integer) {
+            values.put(key, (Integer)value);
+        } else if (value instanceof Short) {
+            values.put(key, (Short)value);
+        } else if (value instanceof Byte) {
+            values.put(key, (Byte)value);
+        } else if (value instanceof Double) {
+            values.put(key, (Double)value);
+        } else if (value instanceof Float) {
+            values.put(key, (Float)value);
+        } else if (value instanceof Boolean) {
+            values.put(key, (Boolean)value);
+        } else {
+            values.put(key, value.toString());
+        }
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >> 6;
+    }
+
+    private static long[] grow(long[] array, int length) {
+        return (array == null) ? new long[length] : Arrays.copyOf(array, length);
+    }
+}
@@ -70,6 +70,13 @@ public class EntityDelta implements Parcelable {
      */
     private HashMap<String, ArrayList<ValuesDelta>> mEntries = Maps.newHashMap();
 
+    /**
+     * Index of children from {@link #mEntries} by {@link ValuesDelta#getId()},
+     * so {@link #getEntry(Long)} doesn't scan every child. Maintained by
+     * {@link #addEntry(ValuesDelta)}, and rebuilt lazily when null.
+     */
+    private LongIndex<ValuesDelta> mEntryIndex;
+
     public EntityDelta() {
     }
 
@@ -82,15 +89,65 @@ public class EntityDelta implements Parcelable {
      * starting point; the "before" snapshot.
      */
     public static EntityDelta fromBefore(Entity before) {
+        return fromBefore(before, false);
+    }
+
+    /**
+     * Build an {@link EntityDelta} using the given {@link Entity} as a
+     * starting point, optionally copying the "before" state of its children
+     * into {@link CompactRows} so the {@link Entity} itself can be dropped.
+     * This keeps editing sessions over many data rows small in memory, at
+     * the cost of copying every row once. When loading several raw contacts,
+     * prefer {@link EntitySet#fromQuery(android.content.ContentResolver,
+     * String, String[], String, boolean)}, which shares tables between them.
+     */
+    public static EntityDelta fromBefore(Entity before, boolean compact) {
+        if (!compact) {
+            return fromBefore(before, null);
+        }
+        final HashMap<String, CompactRows> tables = Maps.newHashMap();
+        final EntityDelta entity = fromBefore(before, tables);
+        trimTables(tables);
+        return entity;
+    }
+
+    /**
+     * Build an {@link EntityDelta} from the given {@link Entity}, adding its
+     * children's "before" state to the given {@link CompactRows}, by
+     * mimetype, or keeping their {@link ContentValues} when null.
+     */
+    /* package */ static EntityDelta fromBefore(Entity before,
+            HashMap<String, CompactRows> tables) {
         final EntityDelta entity = new EntityDelta();
         entity.mValues = ValuesDelta.fromBefore(before.getEntityValues());
         entity.mValues.setIdColumn(RawContacts._ID);
         for (NamedContentValues namedValues : before.getSubValues()) {
-            entity.addEntry(ValuesDelta.fromBefore(namedValues.values));
+            if (tables != null) {
+                final String mimeType = namedValues.values.getAsString(Data.MIMETYPE);
+                CompactRows table = tables.get(mimeType);
+                if (table == null) {
+                    table = new CompactRows();
+                    tables.put(mimeType, table);
+                }
+                final int row = table.addRow(namedValues.values);
+                entity.addEntry(ValuesDelta.fromBefore(table, row));
+            } else {
+                entity.addEntry(ValuesDelta.fromBefore(namedValues.values));
+            }
         }
         return entity;
     }
 
+    /**
+     * Drop spare capacity from tables filled by
+     * {@link #fromBefore(Entity, HashMap)} once no more rows are coming.
+     */
+    /* package */ static void trimTables(HashMap<String, CompactRows> tables) {
+        for (CompactRows table : tables.values()) {
+            table.trimToSize();
+        }
+    }
+
     /**
      * Merge the "after" values from the given {@link EntityDelta} onto the
      * "before" state represented by this {@link EntityDelta}, discarding any
@@ -236,9 +293,35 @@ public class EntityDelta implements Parcelable {
     public ValuesDelta addEntry(ValuesDelta entry) {
         final String mimeType = entry.getMimetype();
         getMimeEntries(mimeType, true).add(entry);
+        if (mEntryIndex != null) {
+            indexEntry(entry);
+        }
         return entry;
     }
 
+    private void indexEntry(ValuesDelta entry) {
+        final Long childId = entry.getId();
+        // Keep the first child with a given id, matching a linear search
+        if (childId != null && mEntryIndex.get(childId) == null) {
+            mEntryIndex.put(childId, entry);
+        }
+    }
+
+    /**
+     * Return {@link #mEntryIndex}, building it when missing.
+     */
+    private LongIndex<ValuesDelta> getEntryIndex() {
+        if (mEntryIndex == null) {
+            mEntryIndex = new LongIndex<ValuesDelta>(getEntryCount(false));
+            for (ArrayList<ValuesDelta> mimeEntries : mEntries.values()) {
+                for (ValuesDelta entry : mimeEntries) {
+                    indexEntry(entry);
+                }
+            }
+        }
+        return mEntryIndex;
+    }
+
     /**
      * Find entry with the given {@link BaseColumns#_ID} value.
      */
@@ -248,15 +331,14 @@ public class EntityDelta implements Parcelable {
             return null;
         }
 
-        // Search all children for requested entry
-        for (ArrayList<ValuesDelta> mimeEntries : mEntries.values()) {
-            for (ValuesDelta entry : mimeEntries) {
-                if (childId.equals(entry.getId())) {
-                    return entry;
-                }
-            }
+        ValuesDelta entry = getEntryIndex().get(childId);
+        if (entry != null && !childId.equals(entry.getId())) {
+            // Child id changed underneath us, such as a direct call to
+            // ValuesDelta.markDeleted() on an insert, so rebuild
+            mEntryIndex = null;
+            entry = getEntryIndex().get(childId);
         }
-        return null;
+        return entry;
     }
 
     /**
@@ -292,6 +374,13 @@ public class EntityDelta implements Parcelable {
     }
 
     private boolean containsEntry(ValuesDelta entry) {
+        final Long childId = entry.getId();
+        if (childId != null) {
+            // Any equal child must have the same id
+            final ValuesDelta child = getEntry(childId);
+            return child != null && child.equals(entry);
+        }
+
         for (ArrayList<ValuesDelta> mimeEntries : mEntries.values()) {
             for (ValuesDelta child : mimeEntries) {
                 // Contained if we find any child that matches
@@ -311,6 +400,8 @@ public class EntityDelta implements Parcelable {
                 child.markDeleted();
             }
         }
+        // Inserted children lose their temporary ids when deleted
+        mEntryIndex = null;
     }
 
     @Override
@@ -492,6 +583,19 @@ public class EntityDelta implements Parcelable {
         protected String mIdColumn = BaseColumns._ID;
         private boolean mFromTemplate;
 
+        /**
+         * Compact "before" state, used instead of {@link #mBefore} when
+         * created through {@link #fromBefore(CompactRows, int)}.
+         */
+        private CompactRows mBeforeRows;
+        private int mBeforeRow;
+
+        /**
+         * Shared "after" state of compact rows without changes, replaced
+         * by real values before any write.
+         */
+        private static final ContentValues EMPTY_AFTER = new ContentValues();
+
         /**
          * Next value to assign to {@link #mIdColumn} when building an insert
          * operation through {@link #fromAfter(ContentValues)}. This is used so
@@ -514,6 +618,18 @@ public class EntityDelta implements Parcelable {
             return entry;
         }
 
+        /**
+         * Create {@link ValuesDelta}, using the given row as the "before"
+         * state. No "after" values are allocated until changes are made.
+         */
+        /* package */ static ValuesDelta fromBefore(CompactRows rows, int row) {
+            final ValuesDelta entry = new ValuesDelta();
+            entry.mBeforeRows = rows;
+            entry.mBeforeRow = row;
+            entry.mAfter = EMPTY_AFTER;
+            return entry;
+        }
+
         /**
          * Create {@link ValuesDelta}, using the given object as the "after"
          * state, usually when we are inserting a row instead of updating.
@@ -529,6 +645,10 @@ public class EntityDelta implements Parcelable {
         }
 
         public ContentValues getAfter() {
+            if (mAfter == EMPTY_AFTER) {
+                // Callers may modify what we return
+                ensureUpdate();
+            }
             return mAfter;
         }
 
@@ -537,6 +657,8 @@ public class EntityDelta implements Parcelable {
                 return mAfter.getAsString(key);
             } else if (mBefore != null && mBefore.containsKey(key)) {
                 return mBefore.getAsString(key);
+            } else if (mBeforeRows != null && mBeforeRows.containsKey(mBeforeRow, key)) {
+                return mBeforeRows.getAsString(mBeforeRow, key);
             } else {
                 return null;
             }
@@ -547,6 +669,8 @@ public class EntityDelta implements Parcelable {
                 return mAfter.getAsByteArray(key);
             } else if (mBefore != null && mBefore.containsKey(key)) {
                 return mBefore.getAsByteArray(key);
+            } else if (mBeforeRows != null && mBeforeRows.containsKey(mBeforeRow, key)) {
+                return mBeforeRows.getAsByteArray(mBeforeRow, key);
             } else {
                 return null;
             }
@@ -557,6 +681,8 @@ public class EntityDelta implements Parcelable {
                 return mAfter.getAsLong(key);
             } else if (mBefore != null && mBefore.containsKey(key)) {
                 return mBefore.getAsLong(key);
+            } else if (mBeforeRows != null && mBeforeRows.containsKey(mBeforeRow, key)) {
+                return mBeforeRows.getAsLong(mBeforeRow, key);
             } else {
                 return null;
             }
@@ -571,6 +697,8 @@ public class EntityDelta implements Parcelable {
                 return mAfter.getAsInteger(key);
             } else if (mBefore != null && mBefore.containsKey(key)) {
                 return mBefore.getAsInteger(key);
+            } else if (mBeforeRows != null && mBeforeRows.containsKey(mBeforeRow, key)) {
+                return mBeforeRows.getAsInteger(mBeforeRow, key);
             } else {
                 return defaultValue;
             }
@@ -607,7 +735,8 @@ public class EntityDelta implements Parcelable {
         }
 
         public boolean beforeExists() {
-            return (mBefore != null && mBefore.containsKey(mIdColumn));
+            return (mBefore != null && mBefore.containsKey(mIdColumn))
+                    || (mBeforeRows != null && mBeforeRows.containsKey(mBeforeRow, mIdColumn));
         }
 
         public boolean isVisible() {
@@ -622,7 +751,7 @@ public class EntityDelta implements Parcelable {
 
         public boolean isTransient() {
             // When no "before" or "after", is transient
-            return (mBefore == null) && (mAfter == null);
+            return (mBefore == null) && (mBeforeRows == null) && (mAfter == null);
         }
 
         public boolean isUpdate() {
@@ -648,7 +777,7 @@ public class EntityDelta implements Parcelable {
          * Ensure that our internal structure is ready for storing updates.
          */
         private void ensureUpdate() {
-            if (mAfter == null) {
+            if (mAfter == null || mAfter == EMPTY_AFTER) {
                 mAfter = new ContentValues();
             }
         }
@@ -678,6 +807,8 @@ public class EntityDelta implements Parcelable {
                 for (Map.Entry<String, Object> entry : mBefore.valueSet()) {
                     keys.add(entry.getKey());
                 }
+            } else if (mBeforeRows != null) {
+                mBeforeRows.addKeysTo(mBeforeRow, keys);
             }
 
             if (mAfter != null) {
@@ -697,6 +828,8 @@ public class EntityDelta implements Parcelable {
             final ContentValues values = new ContentValues();
             if (mBefore != null) {
                 values.putAll(mBefore);
+            } else if (mBeforeRows != null) {
+                mBeforeRows.copyTo(mBeforeRow, values);
             }
             if (mAfter != null) {
                 values.putAll(mAfter);
@@ -817,7 +950,12 @@ public class EntityDelta implements Parcelable {
 
         /** {@inheritDoc} */
         public void writeToParcel(Parcel dest, int flags) {
-            dest.writeParcelable(mBefore, flags);
+            ContentValues before = mBefore;
+            if (before == null && mBeforeRows != null) {
+                before = new ContentValues();
+                mBeforeRows.copyTo(mBeforeRow, before);
+            }
+            dest.writeParcelable(before, flags);
             dest.writeParcelable(mAfter, flags);
             dest.writeString(mIdColumn);
         }
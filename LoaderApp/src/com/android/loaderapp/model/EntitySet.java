@@ -18,6 +18,7 @@ package com.android.loaderapp.model;
 
 import com.android.loaderapp.model.EntityDelta.ValuesDelta;
 import com.google.android.collect.Lists;
+import com.google.android.collect.Maps;
 
 import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
@@ -33,6 +34,7 @@ import android.provider.ContactsContract.RawContacts;
 import android.provider.ContactsContract.RawContactsEntity;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Container for multiple {@link EntityDelta} objects, usually when editing
@@ -42,9 +44,39 @@ import java.util.ArrayList;
 public class EntitySet extends ArrayList<EntityDelta> implements Parcelable {
     private boolean mSplitRawContacts;
 
+    /**
+     * Index from {@link RawContacts#_ID} to position in this list, so
+     * {@link #mergeAfter(EntitySet, EntitySet)} doesn't scan. Valid while
+     * {@link #mIndexModCount} matches {@link #modCount}; {@link #add(EntityDelta)}
+     * keeps it current, and any other change rebuilds it on next use. Ids
+     * changed through {@link EntityDelta#getValues()} can't be seen, so
+     * {@link #mergeAfter(EntitySet, EntitySet)} rebuilds it before use.
+     */
+    private LongIndex<Integer> mRawContactIndex;
+    private int mIndexModCount;
+
     private EntitySet() {
     }
 
+    /**
+     * Receives each {@link EntityDelta} as it is loaded by
+     * {@link EntitySet#fromQuery(ContentResolver, String, String[], String,
+     * boolean, int, EntityConsumer)}, on the loading thread.
+     */
+    public interface EntityConsumer {
+        /**
+         * Called once the given raw contact and all its data rows are read.
+         * Return false to stop loading.
+         */
+        boolean onEntityDelta(EntityDelta delta);
+
+        /**
+         * Checked before reading each raw contact, so loading can be stopped
+         * from another thread.
+         */
+        boolean isCanceled();
+    }
+
     /**
      * Create an {@link EntitySet} that contains the given {@link EntityDelta},
      * usually when inserting a new {@link Contacts} entry.
@@ -62,40 +94,131 @@ public class EntitySet extends ArrayList<EntityDelta> implements Parcelable {
      */
     public static EntitySet fromQuery(ContentResolver resolver, String selection,
             String[] selectionArgs, String sortOrder) {
-        EntityIterator iterator = RawContacts.newEntityIterator(resolver.query(
-                RawContactsEntity.CONTENT_URI, null, selection, selectionArgs,
-                sortOrder));
+        return fromQuery(resolver, selection, selectionArgs, sortOrder, false);
+    }
+
+    /**
+     * Create an {@link EntitySet} as {@link #fromQuery(ContentResolver, String,
+     * String[], String)} does, optionally keeping each {@link EntityDelta} in
+     * the compact form from {@link EntityDelta#fromBefore(Entity, boolean)},
+     * with one set of {@link CompactRows} tables shared by every raw contact.
+     * Sharing is safe here because nothing sees the results until loading
+     * has finished.
+     */
+    public static EntitySet fromQuery(ContentResolver resolver, String selection,
+            String[] selectionArgs, String sortOrder, boolean compact) {
+        final EntitySet state = new EntitySet();
+        final HashMap<String, CompactRows> tables = compact
+                ? Maps.<String, CompactRows>newHashMap() : null;
+        fromIterator(query(resolver, selection, selectionArgs, sortOrder), compact, tables, 0,
+                new EntityConsumer() {
+                    public boolean onEntityDelta(EntityDelta delta) {
+                        state.add(delta);
+                        return true;
+                    }
+
+                    public boolean isCanceled() {
+                        return false;
+                    }
+                });
+        return state;
+    }
+
+    /**
+     * Query {@link Contacts} as {@link #fromQuery(ContentResolver, String,
+     * String[], String, boolean)} does, but hand each {@link EntityDelta} to
+     * the given consumer as soon as its raw contact is complete, instead of
+     * collecting them. This lets an editor show the first raw contact while
+     * the rest are still loading.
+     * <p>
+     * When compact, each raw contact gets its own {@link CompactRows} tables,
+     * trimmed before delivery. The loading thread never touches a delivered
+     * {@link EntityDelta} again, so it can be read on another thread while
+     * loading continues.
+     *
+     * @param maxRows budget of data rows to deliver, or 0 for no limit.
+     *            Loading stops before the first raw contact that would go
+     *            over it, so a huge aggregate can't exhaust memory.
+     * @return true if every raw contact was delivered, or false when loading
+     *         stopped early because of cancellation, the row budget, or the
+     *         consumer.
+     */
+    public static boolean fromQuery(ContentResolver resolver, String selection,
+            String[] selectionArgs, String sortOrder, boolean compact, int maxRows,
+            EntityConsumer consumer) {
+        return fromIterator(query(resolver, selection, selectionArgs, sortOrder), compact,
+                null, maxRows, consumer);
+    }
+
+    private static EntityIterator query(ContentResolver resolver, String selection,
+            String[] selectionArgs, String sortOrder) {
+        return RawContacts.newEntityIterator(resolver.query(RawContactsEntity.CONTENT_URI,
+                null, selection, selectionArgs, sortOrder));
+    }
+
+    /**
+     * Read raw contacts from the given {@link EntityIterator} for
+     * {@link #fromQuery(ContentResolver, String, String[], String, boolean,
+     * int, EntityConsumer)}, closing it when finished.
+     *
+     * @param sharedTables when compact, tables to add every raw contact's
+     *            rows to, or null to give each raw contact its own. Only
+     *            share when the consumer won't read any {@link EntityDelta}
+     *            until this returns, since later raw contacts grow them.
+     */
+    /* package */ static boolean fromIterator(EntityIterator iterator, boolean compact,
+            HashMap<String, CompactRows> sharedTables, int maxRows, EntityConsumer consumer) {
         try {
-            final EntitySet state = new EntitySet();
+            int rows = 0;
             // Perform background query to pull contact details
             while (iterator.hasNext()) {
-                // Read all contacts into local deltas to prepare for edits
+                if (consumer.isCanceled()) return false;
+
+                // Read each contact into a local delta to prepare for edits
                 final Entity before = iterator.next();
-                final EntityDelta entity = EntityDelta.fromBefore(before);
-                state.add(entity);
+                rows += before.getSubValues().size();
+                if (maxRows > 0 && rows > maxRows) return false;
+
+                final EntityDelta entity = (sharedTables != null)
+                        ? EntityDelta.fromBefore(before, sharedTables)
+                        : EntityDelta.fromBefore(before, compact);
+                if (!consumer.onEntityDelta(entity)) return false;
             }
-            return state;
+            return true;
         } finally {
             iterator.close();
+            if (sharedTables != null) EntityDelta.trimTables(sharedTables);
         }
     }
 
     /**
      * Merge the "after" values from the given {@link EntitySet}, discarding any
      * previous "after" states. This is typically used when re-parenting user
-     * edits onto an updated {@link EntitySet}.
+     * edits onto an updated {@link EntitySet}. Local matches are found through
+     * the {@link RawContacts#_ID} index, so this is linear in the size of both
+     * sets.
      */
     public static EntitySet mergeAfter(EntitySet local, EntitySet remote) {
         if (local == null) local = new EntitySet();
 
+        // Ids may have been edited since the index was built
+        local.mRawContactIndex = null;
+
         // For each entity in the remote set, try matching over existing
         for (EntityDelta remoteEntity : remote) {
             final Long rawContactId = remoteEntity.getValues().getId();
 
             // Find or create local match and merge
-            final EntityDelta localEntity = local.getByRawContactId(rawContactId);
+            final int index = local.lookupRawContactId(rawContactId);
+            final EntityDelta localEntity = (index == -1) ? null : local.get(index);
             final EntityDelta merged = EntityDelta.mergeAfter(localEntity, remoteEntity);
 
+            if (localEntity != null
+                    && !rawContactId.equals(localEntity.getValues().getAsLong(RawContacts._ID))) {
+                // Merged "after" values changed the id, so reindex
+                local.mRawContactIndex = null;
+            }
+
             if (localEntity == null && merged != null) {
                 // No local entry before, so insert
                 local.add(merged);
@@ -252,6 +375,48 @@ public class EntitySet extends ArrayList<EntityDelta> implements Parcelable {
         return null;
     }
 
+    @Override
+    public boolean add(EntityDelta delta) {
+        final boolean indexValid = mRawContactIndex != null && mIndexModCount == modCount;
+        super.add(delta);
+        if (indexValid) {
+            indexRawContact(size() - 1);
+            mIndexModCount = modCount;
+        }
+        return true;
+    }
+
+    @Override
+    public EntityDelta set(int index, EntityDelta delta) {
+        // Replacing isn't a structural change, so modCount doesn't catch it
+        mRawContactIndex = null;
+        return super.set(index, delta);
+    }
+
+    private void indexRawContact(int index) {
+        final ValuesDelta values = this.get(index).getValues();
+        final Long rawContactId = (values == null) ? null : values.getAsLong(RawContacts._ID);
+        // Keep the first position for a given id, matching a linear search
+        if (rawContactId != null && mRawContactIndex.get(rawContactId) == null) {
+            mRawContactIndex.put(rawContactId, index);
+        }
+    }
+
+    /**
+     * Return {@link #mRawContactIndex}, rebuilding it when missing or stale.
+     */
+    private LongIndex<Integer> getRawContactIndex() {
+        if (mRawContactIndex == null || mIndexModCount != modCount) {
+            final int size = this.size();
+            mRawContactIndex = new LongIndex<Integer>(size);
+            for (int i = 0; i < size; i++) {
+                indexRawContact(i);
+            }
+            mIndexModCount = modCount;
+        }
+        return mRawContactIndex;
+    }
+
     public EntityDelta getByRawContactId(Long rawContactId) {
         final int index = this.indexOfRawContactId(rawContactId);
         return (index == -1) ? null : this.get(index);
@@ -272,6 +437,22 @@ public class EntitySet extends ArrayList<EntityDelta> implements Parcelable {
         return -1;
     }
 
+    /**
+     * Find index of given {@link RawContacts#_ID} through
+     * {@link #mRawContactIndex}, returning what
+     * {@link #indexOfRawContactId(Long)} would as long as no id changed
+     * since the index was built.
+     */
+    private int lookupRawContactId(Long rawContactId) {
+        if (rawContactId == null) return -1;
+        final Integer index = getRawContactIndex().get(rawContactId);
+        if (index == null) return -1;
+        if (rawContactId.equals(getRawContactId(index))) return index;
+
+        // Indexed entry is hidden, such as after a delete, so fall back to search
+        return indexOfRawContactId(rawContactId);
+    }
+
     public ValuesDelta getSuperPrimaryEntry(final String mimeType) {
         ValuesDelta primary = null;
         ValuesDelta randomEntry = null;
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.loaderapp.model;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive long keys to non-null values, using open addressing so
+ * lookups don't box the key or allocate. Used to index rows by their
+ * {@link android.provider.BaseColumns#_ID}.
+ */
+/* package */ final class LongIndex<V> {
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+
+    public LongIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Create an index sized to hold the given number of entries without
+     * growing.
+     */
+    public LongIndex(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        final int mask = mKeys.length - 1;
+        for (int i = hash(key) & mask; mValues[i] != null; i = (i + 1) & mask) {
+            if (mKeys[i] == key) return (V)mValues[i];
+        }
+        return null;
+    }
+
+    /**
+     * Map the given key to the given value, replacing any existing value.
+     */
+    public void put(long key, V value) {
+        if (value == null) throw new IllegalArgumentException("Null values not allowed");
+        if ((mSize + 1) * 2 > mKeys.length) {
+            resize(mKeys.length * 2);
+        }
+        final int mask = mKeys.length - 1;
+        int i = hash(key) & mask;
+        while (mValues[i] != null) {
+            if (mKeys[i] == key) {
+                mValues[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        mKeys[i] = key;
+        mValues[i] = value;
+        mSize++;
+    }
+
+    /**
+     * Remove any value for the given key, returning it.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        final int mask = mKeys.length - 1;
+        int i = hash(key) & mask;
+        while (mValues[i] != null && mKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        final V removed = (V)mValues[i];
+        if (removed == null) return null;
+
+        // Shift later members of the probe run back, so lookups never stop
+        // early at the hole we leave.
+        int hole = i;
+        for (int j = (i + 1) & mask; mValues[j] != null; j = (j + 1) & mask) {
+            final int home = hash(mKeys[j]) & mask;
+            final boolean movable = (hole <= j) ? (home <= hole || home > j)
+                    : (home <= hole && home > j);
+            if (movable) {
+                mKeys[hole] = mKeys[j];
+                mValues[hole] = mValues[j];
+                hole = j;
+            }
+        }
+        mValues[hole] = null;
+        mSize--;
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(mValues, null);
+        mSize = 0;
+    }
+
+    private void resize(int capacity) {
+        final long[] keys = mKeys;
+        final Object[] values = mValues;
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        final int mask = capacity - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (values[j] == null) continue;
+            int i = hash(keys[j]) & mask;
+            while (mValues[i] != null) {
+                i = (i + 1) & mask;
+            }
+            mKeys[i] = keys[j];
+            mValues[i] = values[j];
+        }
+    }
+
+    private static int hash(long key) {
+        // Spread sequential ids across the table
+        final int h = (int)(key ^ (key >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.loaderapp.model;
+
+import com.android.loaderapp.model.EntityDelta.ValuesDelta;
+
+import android.content.ContentValues;
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for {@link CompactRows}, checking every row reads back the same as
+ * the {@link ContentValues} it was added from, directly and through
+ * {@link ValuesDelta}.
+ */
+@SmallTest
+public class CompactRowsTests extends AndroidTestCase {
+    // Spans several 64-row words of the presence bitmaps
+    private static final int ROWS = 150;
+
+    private static final String MISSING = "missing";
+
+    /**
+     * Build rows with dense and sparse columns of mixed types, including
+     * columns that change type part way down and null values.
+     */
+    private static ArrayList<ContentValues> buildRows() {
+        final ArrayList<ContentValues> rows = new ArrayList<ContentValues>();
+        for (int i = 0; i < ROWS; i++) {
+            final ContentValues values = new ContentValues();
+            values.put("_id", (long)i + 1000);
+            values.put("data2", i % 7);
+            values.put("data1", "555-" + i);
+            if (i == 0) {
+                // Sparse column only in the first row
+                values.put("data3", "label");
+            }
+            if (i == 130) {
+                // Sparse column only past the first bitmap word
+                values.put("is_primary", 1);
+            }
+            if (i % 2 == 0) {
+                values.put("data4", (long)i);
+            } else {
+                values.putNull("data4");
+            }
+            if (i < 100) {
+                values.put("data5", (long)i);
+            } else if (i == 100) {
+                values.put("data5", "not a number");
+            } else if (i == 120) {
+                values.put("data5", 120);
+            } else {
+                values.put("data5", Integer.toString(i));
+            }
+            if (i % 50 == 10) {
+                values.put("data15", new byte[] { (byte)i, 1, 2 });
+            }
+            rows.add(values);
+        }
+        return rows;
+    }
+
+    private static CompactRows buildTable(ArrayList<ContentValues> rows) {
+        final CompactRows table = new CompactRows();
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(i, table.addRow(rows.get(i)));
+        }
+        assertEquals(rows.size(), table.getRowCount());
+        return table;
+    }
+
+    private static Set<String> allKeys(ArrayList<ContentValues> rows) {
+        final HashSet<String> keys = new HashSet<String>();
+        for (ContentValues values : rows) {
+            keys.addAll(values.keySet());
+        }
+        keys.add(MISSING);
+        return keys;
+    }
+
+    private static void assertRowsMatch(ArrayList<ContentValues> rows, CompactRows table) {
+        final Set<String> keys = allKeys(rows);
+        for (int row = 0; row < rows.size(); row++) {
+            final ContentValues expected = rows.get(row);
+            for (String key : keys) {
+                final String message = "row " + row + " key " + key;
+                assertEquals(message, expected.containsKey(key), table.containsKey(row, key));
+                assertEquals(message, expected.getAsString(key), table.getAsString(row, key));
+                assertEquals(message, expected.getAsLong(key), table.getAsLong(row, key));
+                assertEquals(message, expected.getAsInteger(key), table.getAsInteger(row, key));
+                assertTrue(message, Arrays.equals(expected.getAsByteArray(key),
+                        table.getAsByteArray(row, key)));
+            }
+
+            final HashSet<String> rowKeys = new HashSet<String>();
+            table.addKeysTo(row, rowKeys);
+            assertEquals("row " + row, expected.keySet(), rowKeys);
+
+            final ContentValues copy = new ContentValues();
+            table.copyTo(row, copy);
+            assertSameValues("row " + row, expected, copy);
+        }
+    }
+
+    /**
+     * Compare values including their types, which {@link ContentValues}
+     * equality would also check, but with a readable message.
+     */
+    private static void assertSameValues(String message, ContentValues expected,
+            ContentValues actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (Map.Entry<String, Object> entry : expected.valueSet()) {
+            final String key = entry.getKey();
+            final Object value = entry.getValue();
+            assertTrue(message + " key " + key, actual.containsKey(key));
+            final Object actualValue = actual.get(key);
+            if (value == null) {
+                assertNull(message + " key " + key, actualValue);
+            } else if (value instanceof byte[]) {
+                assertTrue(message + " key " + key,
+                        Arrays.equals((byte[])value, (byte[])actualValue));
+            } else {
+                assertEquals(message + " key " + key, value, actualValue);
+                assertEquals(message + " key " + key, value.getClass(), actualValue.getClass());
+            }
+        }
+    }
+
+    public void testRoundTrip() {
+        final ArrayList<ContentValues> rows = buildRows();
+        assertRowsMatch(rows, buildTable(rows));
+    }
+
+    public void testRoundTripAfterTrim() {
+        final ArrayList<ContentValues> rows = buildRows();
+        final CompactRows table = buildTable(rows);
+        table.trimToSize();
+        assertRowsMatch(rows, table);
+
+        // Adding after a trim grows the columns again
+        final ContentValues extra = new ContentValues();
+        extra.put("_id", 5000L);
+        extra.put("data9", "late");
+        rows.add(extra);
+        assertEquals(ROWS, table.addRow(extra));
+        assertRowsMatch(rows, table);
+    }
+
+    public void testSparseColumnPastFirstWord() {
+        final CompactRows table = new CompactRows();
+        final ContentValues first = new ContentValues();
+        first.put("_id", 1L);
+        first.put("data3", "label");
+        table.addRow(first);
+        for (long id = 2; id <= 200; id++) {
+            final ContentValues values = new ContentValues();
+            values.put("_id", id);
+            table.addRow(values);
+        }
+        for (int row = 1; row < 200; row++) {
+            assertFalse(table.containsKey(row, "data3"));
+            assertNull(table.getAsString(row, "data3"));
+        }
+        assertEquals("label", table.getAsString(0, "data3"));
+        final ContentValues copy = new ContentValues();
+        table.copyTo(199, copy);
+        assertEquals(1, copy.size());
+        assertEquals(Long.valueOf(200), copy.getAsLong("_id"));
+    }
+
+    public void testValuesDeltaMatches() {
+        final ArrayList<ContentValues> rows = buildRows();
+        final CompactRows table = buildTable(rows);
+        final Set<String> keys = allKeys(rows);
+        for (int row = 0; row < rows.size(); row++) {
+            final ValuesDelta expected = ValuesDelta.fromBefore(rows.get(row));
+            final ValuesDelta actual = ValuesDelta.fromBefore(table, row);
+            final String message = "row " + row;
+            assertEquals(message, expected.keySet(), actual.keySet());
+            for (String key : keys) {
+                assertEquals(message, expected.getAsString(key), actual.getAsString(key));
+                assertEquals(message, expected.getAsLong(key), actual.getAsLong(key));
+                assertEquals(message, expected.getAsInteger(key), actual.getAsInteger(key));
+            }
+            assertEquals(message, expected.beforeExists(), actual.beforeExists());
+            assertEquals(message, expected.isNoop(), actual.isNoop());
+            assertSameValues(message, expected.getCompleteValues(),
+                    actual.getCompleteValues());
+            assertEquals(message, expected, actual);
+        }
+    }
+
+    public void testParcel() {
+        final ArrayList<ContentValues> rows = buildRows();
+        final CompactRows table = buildTable(rows);
+        for (int row = 0; row < rows.size(); row++) {
+            final ValuesDelta original = ValuesDelta.fromBefore(table, row);
+            if (row % 3 == 0) original.put("data1", "edited");
+
+            final Parcel parcel = Parcel.obtain();
+            try {
+                original.writeToParcel(parcel, 0);
+                parcel.setDataPosition(0);
+                final ValuesDelta restored = ValuesDelta.CREATOR.createFromParcel(parcel);
+                final String message = "row " + row;
+                assertSameValues(message, rows.get(row), restored.mBefore);
+                assertSameValues(message, original.getCompleteValues(),
+                        restored.getCompleteValues());
+                assertEquals(message, original.isUpdate(), restored.isUpdate());
+            } finally {
+                parcel.recycle();
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.loaderapp.model;
+
+import com.android.loaderapp.model.EntityDelta.ValuesDelta;
+
+import android.content.ContentValues;
+import android.content.Entity;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * Merge cost of {@link EntityDelta#mergeAfter(EntityDelta, EntityDelta)} on
+ * contacts with hundreds of data rows, against the original linear child
+ * search, checking both give the same result.
+ */
+@LargeTest
+public class EntityDeltaTests extends AndroidTestCase {
+    public static final String TAG = "EntityDeltaTests";
+
+    private static final long RAW_CONTACT_ID = 1;
+    private static final int[] ROW_COUNTS = { 100, 200, 400, 800 };
+    private static final int REPEATS = 5;
+
+    /**
+     * Build an {@link EntityDelta} with the given number of phone rows,
+     * using ids starting at 1.
+     */
+    private static EntityDelta buildEntity(int rows) {
+        final ContentValues values = new ContentValues();
+        values.put(RawContacts._ID, RAW_CONTACT_ID);
+        values.put(RawContacts.VERSION, 1);
+        final Entity before = new Entity(values);
+        for (long dataId = 1; dataId <= rows; dataId++) {
+            final ContentValues data = new ContentValues();
+            data.put(Data._ID, dataId);
+            data.put(Data.MIMETYPE, Phone.CONTENT_ITEM_TYPE);
+            data.put(Phone.NUMBER, "555-" + dataId);
+            before.addSubValue(Data.CONTENT_URI, data);
+        }
+        return EntityDelta.fromBefore(before);
+    }
+
+    /**
+     * Build a remote edit touching every row, deleting every tenth, and
+     * adding a tenth more rows that the local side doesn't have.
+     */
+    private static EntityDelta buildRemote(int rows) {
+        final EntityDelta remote = buildEntity(rows + rows / 10);
+        for (ValuesDelta entry : remote.getMimeEntries(Phone.CONTENT_ITEM_TYPE)) {
+            final long dataId = entry.getId();
+            if (dataId % 10 == 0) {
+                entry.markDeleted();
+            } else {
+                entry.put(Phone.NUMBER, "remote-" + dataId);
+            }
+        }
+        return remote;
+    }
+
+    /**
+     * The original {@link EntityDelta#mergeAfter(EntityDelta, EntityDelta)},
+     * finding each local child with a linear search.
+     */
+    private static EntityDelta mergeAfterLinear(EntityDelta local, EntityDelta remote) {
+        ValuesDelta.mergeAfter(local.getValues(), remote.getValues());
+        for (ValuesDelta remoteEntry : remote.getMimeEntries(Phone.CONTENT_ITEM_TYPE)) {
+            final ValuesDelta localEntry = getEntryLinear(local, remoteEntry.getId());
+            final ValuesDelta merged = ValuesDelta.mergeAfter(localEntry, remoteEntry);
+            if (localEntry == null && merged != null) {
+                local.addEntry(merged);
+            }
+        }
+        return local;
+    }
+
+    private static ValuesDelta getEntryLinear(EntityDelta entity, Long childId) {
+        if (childId == null) return null;
+        for (ValuesDelta entry : entity.getMimeEntries(Phone.CONTENT_ITEM_TYPE)) {
+            if (childId.equals(entry.getId())) return entry;
+        }
+        return null;
+    }
+
+    public void testMergeHundredsOfRows() {
+        for (int rows : ROW_COUNTS) {
+            long indexedNanos = Long.MAX_VALUE;
+            long linearNanos = Long.MAX_VALUE;
+            for (int i = 0; i < REPEATS; i++) {
+                final EntityDelta expected = buildEntity(rows);
+                final EntityDelta actual = buildEntity(rows);
+                final EntityDelta expectedRemote = buildRemote(rows);
+                final EntityDelta actualRemote = buildRemote(rows);
+
+                long start = System.nanoTime();
+                mergeAfterLinear(expected, expectedRemote);
+                linearNanos = Math.min(linearNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                EntityDelta.mergeAfter(actual, actualRemote);
+                indexedNanos = Math.min(indexedNanos, System.nanoTime() - start);
+
+                assertEquals("Unexpected merge of " + rows, expected, actual);
+                assertEquals("Unexpected merge of " + rows, actual, expected);
+                assertEquals("Unexpected rows", expected.getEntryCount(false),
+                        actual.getEntryCount(false));
+                assertEquals("Unexpected visible rows", expected.getEntryCount(true),
+                        actual.getEntryCount(true));
+            }
+            Log.i(TAG, "rows=" + rows + " linear_us=" + linearNanos / 1000
+                    + " indexed_us=" + indexedNanos / 1000);
+        }
+    }
+
+    public void testGetEntryAfterMarkDeleted() {
+        final EntityDelta entity = buildEntity(300);
+        final ValuesDelta inserted = ValuesDelta.fromAfter(new ContentValues());
+        inserted.put(Data.MIMETYPE, Phone.CONTENT_ITEM_TYPE);
+        entity.addEntry(inserted);
+        final Long insertedId = inserted.getId();
+        assertSame(inserted, entity.getEntry(insertedId));
+        assertNotNull(entity.getEntry(150L));
+
+        entity.markDeleted();
+        assertNull(entity.getEntry(insertedId));
+        assertEquals(getEntryLinear(entity, 150L), entity.getEntry(150L));
+        assertNull(entity.getEntry(null));
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.loaderapp.model;
+
+import com.android.loaderapp.model.EntityDelta.ValuesDelta;
+
+import android.content.ContentValues;
+import android.content.Entity;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+import android.provider.ContactsContract.RawContactsEntity;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Tests for {@link EntitySet#mergeAfter(EntitySet, EntitySet)}, checking
+ * that the indexed merge gives the same result as the original linear
+ * search through {@link EntitySet#getByRawContactId(Long)}, and for
+ * streaming raw contacts to an {@link EntitySet.EntityConsumer}.
+ */
+@SmallTest
+public class EntitySetTests extends AndroidTestCase {
+    private static final long[] LOCAL_IDS = { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+    // Columns RawContacts.newEntityIterator() requires
+    private static final String[] ENTITY_COLUMNS = {
+            RawContacts._ID, RawContacts.VERSION, RawContactsEntity.DATA_ID, Data.MIMETYPE,
+            Data.DATA1, Data.DATA2, Data.DATA3, Data.DATA4, Data.DATA5, Data.DATA6,
+            Data.DATA7, Data.DATA8, Data.DATA9, Data.DATA10, Data.DATA11, Data.DATA12,
+            Data.DATA13, Data.DATA14, Data.DATA15, Data.SYNC1, Data.SYNC2, Data.SYNC3,
+            Data.SYNC4 };
+
+    /**
+     * Build an {@link EntityDelta} for the given raw contact, with two phone
+     * rows whose ids are derived from the raw contact id.
+     */
+    private static EntityDelta buildEntity(long rawContactId, boolean compact) {
+        final ContentValues values = new ContentValues();
+        values.put(RawContacts._ID, rawContactId);
+        values.put(RawContacts.VERSION, 1);
+        final Entity before = new Entity(values);
+        for (long dataId = rawContactId * 10 + 1; dataId <= rawContactId * 10 + 2; dataId++) {
+            final ContentValues data = new ContentValues();
+            data.put(Data._ID, dataId);
+            data.put(Data.MIMETYPE, Phone.CONTENT_ITEM_TYPE);
+            data.put(Phone.NUMBER, "555-" + dataId);
+            before.addSubValue(Data.CONTENT_URI, data);
+        }
+        return EntityDelta.fromBefore(before, compact);
+    }
+
+    /**
+     * Build a remote edit of the given raw contact, tagged so any mix-up
+     * of which local entry received it shows up when comparing.
+     */
+    private static EntityDelta buildEdit(long rawContactId, String tag) {
+        final EntityDelta remote = buildEntity(rawContactId, false);
+        remote.getValues().put(RawContacts.SOURCE_ID, tag);
+        remote.getEntry(rawContactId * 10 + 1).put(Phone.NUMBER, tag);
+        return remote;
+    }
+
+    private static EntityDelta buildDelete(long rawContactId) {
+        final EntityDelta remote = buildEntity(rawContactId, false);
+        remote.markDeleted();
+        return remote;
+    }
+
+    private static EntitySet buildSet(long[] ids, boolean compact) {
+        final EntitySet set = EntitySet.fromSingle(buildEntity(ids[0], compact));
+        for (int i = 1; i < ids.length; i++) {
+            set.add(buildEntity(ids[i], compact));
+        }
+        return set;
+    }
+
+    private static EntitySet buildRemote(EntityDelta... entities) {
+        final EntitySet set = EntitySet.fromSingle(entities[0]);
+        for (int i = 1; i < entities.length; i++) {
+            set.add(entities[i]);
+        }
+        return set;
+    }
+
+    private static EntitySet buildMixedRemote() {
+        return buildRemote(buildEdit(3, "three"), buildDelete(5), buildEdit(8, "eight"),
+                buildEdit(42, "new"), buildDelete(43), buildEdit(1, "one"));
+    }
+
+    /**
+     * The original {@link EntitySet#mergeAfter(EntitySet, EntitySet)},
+     * finding each local match with a linear search.
+     */
+    private static EntitySet mergeAfterLinear(EntitySet local, EntitySet remote) {
+        for (EntityDelta remoteEntity : remote) {
+            final Long rawContactId = remoteEntity.getValues().getId();
+            final EntityDelta localEntity = local.getByRawContactId(rawContactId);
+            final EntityDelta merged = EntityDelta.mergeAfter(localEntity, remoteEntity);
+            if (localEntity == null && merged != null) {
+                local.add(merged);
+            }
+        }
+        return local;
+    }
+
+    private static void assertSameMerge(EntitySet expected, EntitySet actual) {
+        assertEquals("Unexpected size", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final EntityDelta expectedEntity = expected.get(i);
+            final EntityDelta actualEntity = actual.get(i);
+            assertEquals("Unexpected entity " + i, expectedEntity, actualEntity);
+            assertEquals("Unexpected entity " + i, actualEntity, expectedEntity);
+
+            final ValuesDelta expectedValues = expectedEntity.getValues();
+            final ValuesDelta actualValues = actualEntity.getValues();
+            assertEquals("Unexpected visibility " + i, expectedValues.isVisible(),
+                    actualValues.isVisible());
+            assertEquals("Unexpected insert " + i, expectedValues.isInsert(),
+                    actualValues.isInsert());
+            assertEquals("Unexpected delete " + i, expectedValues.isDelete(),
+                    actualValues.isDelete());
+            assertEquals("Unexpected children " + i, expectedEntity.getEntryCount(false),
+                    actualEntity.getEntryCount(false));
+        }
+    }
+
+    public void testMergeMatchesLinear() {
+        final EntitySet expected = mergeAfterLinear(buildSet(LOCAL_IDS, false),
+                buildMixedRemote());
+        final EntitySet actual = EntitySet.mergeAfter(buildSet(LOCAL_IDS, false),
+                buildMixedRemote());
+        assertSameMerge(expected, actual);
+    }
+
+    public void testMergeCompactMatchesLinear() {
+        final EntitySet expected = mergeAfterLinear(buildSet(LOCAL_IDS, true),
+                buildMixedRemote());
+        final EntitySet actual = EntitySet.mergeAfter(buildSet(LOCAL_IDS, true),
+                buildMixedRemote());
+        assertSameMerge(expected, actual);
+    }
+
+    public void testMergeIntoNull() {
+        final EntitySet expected = mergeAfterLinear(EntitySet.fromSingle(buildEntity(99, false)),
+                buildMixedRemote());
+        expected.remove(0);
+        final EntitySet actual = EntitySet.mergeAfter(null, buildMixedRemote());
+        assertSameMerge(expected, actual);
+    }
+
+    public void testDuplicateIds() {
+        final long[] ids = { 1, 2, 2, 3, 1 };
+        final EntitySet expected = mergeAfterLinear(buildSet(ids, false), buildRemote(
+                buildEdit(2, "first"), buildEdit(1, "one"), buildEdit(2, "second"),
+                buildEdit(50, "new"), buildEdit(50, "again"), buildDelete(1)));
+        final EntitySet actual = EntitySet.mergeAfter(buildSet(ids, false), buildRemote(
+                buildEdit(2, "first"), buildEdit(1, "one"), buildEdit(2, "second"),
+                buildEdit(50, "new"), buildEdit(50, "again"), buildDelete(1)));
+        assertSameMerge(expected, actual);
+    }
+
+    public void testInvisibleEntries() {
+        final long[] ids = { 1, 2, 3, 2, 4 };
+        final EntitySet expectedLocal = buildSet(ids, false);
+        final EntitySet actualLocal = buildSet(ids, false);
+        // Hide the first of the duplicates, and a raw contact with no others
+        expectedLocal.get(1).markDeleted();
+        actualLocal.get(1).markDeleted();
+        expectedLocal.get(4).markDeleted();
+        actualLocal.get(4).markDeleted();
+
+        final EntitySet expected = mergeAfterLinear(expectedLocal,
+                buildRemote(buildEdit(2, "two"), buildEdit(4, "four"), buildEdit(3, "three")));
+        final EntitySet actual = EntitySet.mergeAfter(actualLocal,
+                buildRemote(buildEdit(2, "two"), buildEdit(4, "four"), buildEdit(3, "three")));
+        assertSameMerge(expected, actual);
+    }
+
+    public void testDeletedDuringMerge() {
+        final long[] ids = { 1, 2, 2 };
+        final EntitySet expected = mergeAfterLinear(buildSet(ids, false),
+                buildRemote(buildDelete(2), buildEdit(2, "two"), buildEdit(2, "again")));
+        final EntitySet actual = EntitySet.mergeAfter(buildSet(ids, false),
+                buildRemote(buildDelete(2), buildEdit(2, "two"), buildEdit(2, "again")));
+        assertSameMerge(expected, actual);
+    }
+
+    /**
+     * Give the first raw contact a new id, and the fourth the id of the
+     * third, as an editor could through {@link EntityDelta#getValues()}.
+     */
+    private static void changeIds(EntitySet set) {
+        set.get(0).getValues().put(RawContacts._ID, 77);
+        set.get(3).getValues().put(RawContacts._ID, 3);
+    }
+
+    public void testIdsChangedAfterIndexing() {
+        final EntitySet expected = mergeAfterLinear(buildSet(LOCAL_IDS, false),
+                buildRemote(buildEdit(2, "two")));
+        final EntitySet actual = EntitySet.mergeAfter(buildSet(LOCAL_IDS, false),
+                buildRemote(buildEdit(2, "two")));
+        assertSameMerge(expected, actual);
+
+        changeIds(expected);
+        changeIds(actual);
+        assertEquals(expected.indexOfRawContactId(77L), actual.indexOfRawContactId(77L));
+        assertEquals(expected.indexOfRawContactId(1L), actual.indexOfRawContactId(1L));
+
+        mergeAfterLinear(expected, buildRemote(buildEdit(77, "moved"), buildEdit(1, "old"),
+                buildEdit(3, "three"), buildEdit(4, "four")));
+        EntitySet.mergeAfter(actual, buildRemote(buildEdit(77, "moved"), buildEdit(1, "old"),
+                buildEdit(3, "three"), buildEdit(4, "four")));
+        assertSameMerge(expected, actual);
+    }
+
+    public void testSetInvalidates() {
+        final EntitySet expected = mergeAfterLinear(buildSet(LOCAL_IDS, false),
+                buildRemote(buildEdit(2, "two")));
+        final EntitySet actual = EntitySet.mergeAfter(buildSet(LOCAL_IDS, false),
+                buildRemote(buildEdit(2, "two")));
+
+        expected.set(1, buildEntity(60, false));
+        actual.set(1, buildEntity(60, false));
+        expected.set(5, buildEntity(2, false));
+        actual.set(5, buildEntity(2, false));
+
+        mergeAfterLinear(expected, buildRemote(buildEdit(60, "sixty"), buildEdit(2, "two"),
+                buildEdit(6, "six")));
+        EntitySet.mergeAfter(actual, buildRemote(buildEdit(60, "sixty"), buildEdit(2, "two"),
+                buildEdit(6, "six")));
+        assertSameMerge(expected, actual);
+    }
+
+    public void testRemoveInvalidates() {
+        final EntitySet expected = mergeAfterLinear(buildSet(LOCAL_IDS, false),
+                buildRemote(buildEdit(2, "two")));
+        final EntitySet actual = EntitySet.mergeAfter(buildSet(LOCAL_IDS, false),
+                buildRemote(buildEdit(2, "two")));
+
+        expected.remove(2);
+        actual.remove(2);
+        expected.remove(0);
+        actual.remove(0);
+
+        mergeAfterLinear(expected, buildRemote(buildEdit(1, "one"), buildEdit(3, "three"),
+                buildEdit(4, "four"), buildEdit(8, "eight")));
+        EntitySet.mergeAfter(actual, buildRemote(buildEdit(1, "one"), buildEdit(3, "three"),
+                buildEdit(4, "four"), buildEdit(8, "eight")));
+        assertSameMerge(expected, actual);
+    }
+
+    public void testIndexOfMatchesAfterAdd() {
+        final EntitySet set = buildSet(LOCAL_IDS, false);
+        EntitySet.mergeAfter(set, buildRemote(buildEdit(2, "two")));
+        set.add(buildEntity(90, false));
+        assertEquals(LOCAL_IDS.length, set.indexOfRawContactId(90L));
+        assertEquals(1, set.indexOfRawContactId(2L));
+        assertEquals(-1, set.indexOfRawContactId(91L));
+        assertEquals(-1, set.indexOfRawContactId(null));
+    }
+
+    /**
+     * Build a {@link RawContactsEntity} cursor holding the same raw contacts
+     * as {@link #buildSet(long[], boolean)}.
+     */
+    private static MatrixCursor buildCursor(long[] ids) {
+        final MatrixCursor cursor = new MatrixCursor(ENTITY_COLUMNS);
+        for (long rawContactId : ids) {
+            for (long dataId = rawContactId * 10 + 1; dataId <= rawContactId * 10 + 2; dataId++) {
+                final Object[] row = new Object[ENTITY_COLUMNS.length];
+                row[0] = rawContactId;
+                row[1] = 1;
+                row[2] = dataId;
+                row[3] = Phone.CONTENT_ITEM_TYPE;
+                row[4] = "555-" + dataId;
+                cursor.addRow(row);
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Collects what it is given, canceling once it has the given number of
+     * raw contacts and refusing the one after the given number, when
+     * positive.
+     */
+    private static class CollectingConsumer implements EntitySet.EntityConsumer {
+        final ArrayList<EntityDelta> mDeltas = new ArrayList<EntityDelta>();
+        final ArrayList<String> mDelivered = new ArrayList<String>();
+        private final int mCancelAfter;
+        private final int mRefuseAfter;
+
+        CollectingConsumer(int cancelAfter, int refuseAfter) {
+            mCancelAfter = cancelAfter;
+            mRefuseAfter = refuseAfter;
+        }
+
+        public boolean onEntityDelta(EntityDelta delta) {
+            mDeltas.add(delta);
+            mDelivered.add(delta.toString());
+            return mRefuseAfter <= 0 || mDeltas.size() <= mRefuseAfter;
+        }
+
+        public boolean isCanceled() {
+            return mCancelAfter > 0 && mDeltas.size() >= mCancelAfter;
+        }
+
+        /**
+         * Check delivered raw contacts still read as they did when they were
+         * delivered, and hold the rows from {@link #buildCursor(long[])}.
+         */
+        void assertDelivered(long[] ids, int count) {
+            assertEquals(count, mDeltas.size());
+            for (int i = 0; i < count; i++) {
+                final EntityDelta entity = mDeltas.get(i);
+                assertEquals("Changed after delivery " + i, mDelivered.get(i),
+                        entity.toString());
+                assertEquals(Long.valueOf(ids[i]), entity.getValues().getId());
+                assertEquals(2, entity.getEntryCount(false));
+                for (long dataId = ids[i] * 10 + 1; dataId <= ids[i] * 10 + 2; dataId++) {
+                    final ValuesDelta entry = entity.getEntry(dataId);
+                    assertNotNull("Missing row " + dataId, entry);
+                    assertEquals("555-" + dataId, entry.getAsString(Phone.NUMBER));
+                }
+            }
+        }
+    }
+
+    private static boolean stream(MatrixCursor cursor, boolean compact, int maxRows,
+            CollectingConsumer consumer) {
+        return EntitySet.fromIterator(RawContacts.newEntityIterator(cursor), compact, null,
+                maxRows, consumer);
+    }
+
+    public void testStreamAll() {
+        for (boolean compact : new boolean[] { false, true }) {
+            final MatrixCursor cursor = buildCursor(LOCAL_IDS);
+            final CollectingConsumer consumer = new CollectingConsumer(0, 0);
+            assertTrue(stream(cursor, compact, 0, consumer));
+            consumer.assertDelivered(LOCAL_IDS, LOCAL_IDS.length);
+            assertTrue(cursor.isClosed());
+        }
+    }
+
+    public void testStreamSharedTables() {
+        final MatrixCursor cursor = buildCursor(LOCAL_IDS);
+        final CollectingConsumer consumer = new CollectingConsumer(0, 0);
+        final HashMap<String, CompactRows> tables = new HashMap<String, CompactRows>();
+        assertTrue(EntitySet.fromIterator(RawContacts.newEntityIterator(cursor), true,
+                tables, 0, consumer));
+        consumer.assertDelivered(LOCAL_IDS, LOCAL_IDS.length);
+        assertEquals(1, tables.size());
+        assertEquals(LOCAL_IDS.length * 2, tables.get(Phone.CONTENT_ITEM_TYPE).getRowCount());
+    }
+
+    public void testStreamCanceled() {
+        final MatrixCursor cursor = buildCursor(LOCAL_IDS);
+        final CollectingConsumer consumer = new CollectingConsumer(3, 0);
+        assertFalse(stream(cursor, true, 0, consumer));
+        consumer.assertDelivered(LOCAL_IDS, 3);
+        assertTrue(cursor.isClosed());
+    }
+
+    public void testStreamMaxRows() {
+        // Two rows each, so a budget of 7 covers three raw contacts
+        MatrixCursor cursor = buildCursor(LOCAL_IDS);
+        CollectingConsumer consumer = new CollectingConsumer(0, 0);
+        assertFalse(stream(cursor, true, 7, consumer));
+        consumer.assertDelivered(LOCAL_IDS, 3);
+        assertTrue(cursor.isClosed());
+
+        // A budget of exactly every row delivers them all
+        cursor = buildCursor(LOCAL_IDS);
+        consumer = new CollectingConsumer(0, 0);
+        assertTrue(stream(cursor, true, LOCAL_IDS.length * 2, consumer));
+        consumer.assertDelivered(LOCAL_IDS, LOCAL_IDS.length);
+    }
+
+    public void testStreamConsumerStops() {
+        final MatrixCursor cursor = buildCursor(LOCAL_IDS);
+        final CollectingConsumer consumer = new CollectingConsumer(0, 2);
+        assertFalse(stream(cursor, true, 0, consumer));
+        // The refused raw contact was still delivered, but nothing after it
+        consumer.assertDelivered(LOCAL_IDS, 3);
+        assertTrue(cursor.isClosed());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.loaderapp.model;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for {@link LongIndex}, mostly its backward-shift
+ * {@link LongIndex#remove(long)}, which must leave every remaining key
+ * reachable from its home slot.
+ */
+@SmallTest
+public class LongIndexTests extends AndroidTestCase {
+
+    public void testPutGet() {
+        final LongIndex<String> index = new LongIndex<String>();
+        index.put(1, "one");
+        index.put(-1, "minus");
+        index.put(Long.MAX_VALUE, "max");
+        index.put(0, "zero");
+        assertEquals(4, index.size());
+        assertEquals("one", index.get(1));
+        assertEquals("minus", index.get(-1));
+        assertEquals("max", index.get(Long.MAX_VALUE));
+        assertEquals("zero", index.get(0));
+        assertNull(index.get(2));
+
+        index.put(1, "uno");
+        assertEquals(4, index.size());
+        assertEquals("uno", index.get(1));
+    }
+
+    public void testPutNull() {
+        final LongIndex<String> index = new LongIndex<String>();
+        try {
+            index.put(1, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testGrow() {
+        final LongIndex<Long> index = new LongIndex<Long>();
+        for (long key = 0; key < 1000; key++) {
+            index.put(key * 7, key);
+        }
+        assertEquals(1000, index.size());
+        for (long key = 0; key < 1000; key++) {
+            assertEquals(Long.valueOf(key), index.get(key * 7));
+        }
+    }
+
+    public void testRemoveMissing() {
+        final LongIndex<String> index = new LongIndex<String>();
+        assertNull(index.remove(5));
+        index.put(5, "five");
+        assertNull(index.remove(6));
+        assertEquals(1, index.size());
+        assertEquals("five", index.remove(5));
+        assertNull(index.remove(5));
+        assertEquals(0, index.size());
+        assertNull(index.get(5));
+    }
+
+    public void testRemoveEachPosition() {
+        // Dense keys in the smallest table form long probe runs, so each
+        // removal below has later run members to shift back.
+        final long[] keys = { 0, 1, 2, 3, 8, 16, 24 };
+        for (int removed = 0; removed < keys.length; removed++) {
+            final LongIndex<Long> index = new LongIndex<Long>(keys.length);
+            for (long key : keys) {
+                index.put(key, key);
+            }
+            assertEquals(Long.valueOf(keys[removed]), index.remove(keys[removed]));
+            assertEquals(keys.length - 1, index.size());
+            for (int i = 0; i < keys.length; i++) {
+                if (i == removed) {
+                    assertNull(index.get(keys[i]));
+                } else {
+                    assertEquals("Lost " + keys[i] + " removing " + keys[removed],
+                            Long.valueOf(keys[i]), index.get(keys[i]));
+                }
+            }
+        }
+    }
+
+    public void testRemoveMatchesHashMap() {
+        // Small tables at half load, so probe runs often wrap past the end
+        final Random random = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            final LongIndex<Long> index = new LongIndex<Long>(random.nextInt(4));
+            final HashMap<Long, Long> expected = new HashMap<Long, Long>();
+            final ArrayList<Long> keys = new ArrayList<Long>();
+            for (int op = 0; op < 500; op++) {
+                if (keys.isEmpty() || random.nextInt(3) != 0) {
+                    final long key = random.nextInt(64) - 8;
+                    index.put(key, key + round);
+                    if (expected.put(key, key + round) == null) keys.add(key);
+                } else {
+                    final Long key = keys.remove(random.nextInt(keys.size()));
+                    assertEquals(expected.remove(key), index.remove(key));
+                }
+                assertEquals(expected.size(), index.size());
+            }
+            for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), index.get(entry.getKey()));
+            }
+            for (long key = -8; key < 56; key++) {
+                if (!expected.containsKey(key)) assertNull(index.get(key));
+            }
+        }
+    }
+
+    public void testRemoveAllThenReuse() {
+        final LongIndex<Long> index = new LongIndex<Long>();
+        for (long key = 0; key < 100; key++) {
+            index.put(key, key);
+        }
+        for (long key = 99; key >= 0; key -= 2) {
+            assertEquals(Long.valueOf(key), index.remove(key));
+        }
+        for (long key = 0; key < 100; key += 2) {
+            assertEquals(Long.valueOf(key), index.remove(key));
+        }
+        assertEquals(0, index.size());
+        for (long key = 0; key < 100; key++) {
+            assertNull(index.get(key));
+        }
+
+        index.put(42, 42L);
+        assertEquals(Long.valueOf(42), index.get(42));
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.get(42));
+    }
+}
@@ -18,6 +18,7 @@ include $(CLEAR_VARS)
 LOCAL_MODULE_TAGS := tests   # Allows non-localized strings
 LOCAL_SRC_FILES := $(call all-subdir-java-files)
 LOCAL_SRC_FILES += src/com/android/rpc_performance/IService.aidl
+LOCAL_SRC_FILES += src/com/android/rpc_performance/IServiceCallback.aidl
 LOCAL_PACKAGE_NAME := RpcPerformance
 include $(BUILD_PACKAGE)
 
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+/**
+ * One named, repeatable benchmark loop.  Instances are registered with a
+ * {@link BenchmarkSuite} and driven by a {@link BenchmarkRunner}, either from
+ * the buttons in {@link ProviderPerfActivity} or headless from
+ * {@link BenchmarkInstrumentation}.
+ */
+public abstract class Benchmark {
+
+    private final String mName;
+
+    protected Benchmark(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Runs {@code iterations} operations, recording the time of each one
+     * into {@code hist}.
+     *
+     * @return false if the benchmark could not run or an operation failed.
+     */
+    public abstract boolean run(int iterations, LatencyHistogram hist);
+
+    /**
+     * Called once after the last successful trial so the benchmark can add
+     * its own extras or series to the result.  They describe that final
+     * trial, which is part of the reported window; anything derived from
+     * {@link BenchmarkResult#histogram}, like its percentiles, covers every
+     * kept trial.
+     */
+    public void report(BenchmarkResult result) {
+    }
+}
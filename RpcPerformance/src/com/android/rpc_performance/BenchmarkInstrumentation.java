@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Headless entry point for scripted runs:
+ *
+ *   adb shell am instrument -w \
+ *       -e benchmarks service_void,localsocket \
+ *       -e iterations 1000 -e warmup 200 -e trials 5 \
+ *       -e max_trials 20 -e cv 0.05 -e alloc false \
+ *       -e threads 16 -e max_payload 65536 \
+ *       -e max_window 64 -e frame_bytes 256 -e max_batch_rows 1000 \
+ *       -e cursor_rows 50000 -e cursor_columns 8 -e cell_bytes 32 \
+ *       -e scan_rows 100 \
+ *       -e max_shared 16777216 -e ring_bytes 1048576 -e ack_batch 16 \
+ *       -e io_file_bytes 67108864 -e cold_cache true \
+ *       -e output /data/data/com.android.rpc_performance/files \
+ *       -e run_id nightly-1234 -e baseline nightly-1233 \
+ *       com.android.rpc_performance/.BenchmarkInstrumentation
+ *
+ * All arguments are optional; "benchmarks" defaults to every registered
+ * benchmark.  "trials" is the size of the reported window; more trials, up
+ * to "max_trials", are run until the trial medians vary by at most "cv".
+ * Results are written as results-TIMESTAMP.json and .csv into the output
+ * directory and summarized on the instrumentation stream.  They are also
+ * saved in the {@link ResultStore} under "run_id" (default: the current
+ * time); given "baseline", a stored run id, the results are checked for
+ * regressions against it and the count is reported as "regressions".
+ */
+public class BenchmarkInstrumentation extends Instrumentation {
+
+    private static final String TAG = "BenchmarkInstrumentation";
+
+    public static final String ARG_BENCHMARKS = "benchmarks";
+    public static final String ARG_ITERATIONS = "iterations";
+    public static final String ARG_WARMUP = "warmup";
+    public static final String ARG_TRIALS = "trials";
+    public static final String ARG_MAX_TRIALS = "max_trials";
+    public static final String ARG_CV = "cv";
+    public static final String ARG_ALLOC = "alloc";
+    public static final String ARG_THREADS = "threads";
+    public static final String ARG_MAX_PAYLOAD = "max_payload";
+    public static final String ARG_MAX_WINDOW = "max_window";
+    public static final String ARG_FRAME_BYTES = "frame_bytes";
+    public static final String ARG_MAX_BATCH_ROWS = "max_batch_rows";
+    public static final String ARG_CURSOR_ROWS = "cursor_rows";
+    public static final String ARG_CURSOR_COLUMNS = "cursor_columns";
+    public static final String ARG_CELL_BYTES = "cell_bytes";
+    public static final String ARG_MAX_SHARED = "max_shared";
+    public static final String ARG_RING_BYTES = "ring_bytes";
+    public static final String ARG_ACK_BATCH = "ack_batch";
+    public static final String ARG_IO_FILE_BYTES = "io_file_bytes";
+    public static final String ARG_COLD_CACHE = "cold_cache";
+    public static final String ARG_SCAN_ROWS = "scan_rows";
+    public static final String ARG_OUTPUT = "output";
+    public static final String ARG_RUN_ID = "run_id";
+    public static final String ARG_BASELINE = "baseline";
+
+    public static final String REPORT_KEY_REGRESSIONS = "regressions";
+
+    private static final long SERVICE_BIND_TIMEOUT_MILLIS = 10000;
+
+    private Bundle mArguments;
+
+    @Override public void onCreate(Bundle arguments) {
+        super.onCreate(arguments);
+        mArguments = arguments != null ? arguments : new Bundle();
+        start();
+    }
+
+    @Override public void onStart() {
+        super.onStart();
+        BenchmarkSuite suite = new BenchmarkSuite(getTargetContext());
+        suite.setClientThreads(intArg(ARG_THREADS, suite.getClientThreads()));
+        suite.setMaxPayloadBytes(intArg(ARG_MAX_PAYLOAD, suite.getMaxPayloadBytes()));
+        suite.setMaxWindow(intArg(ARG_MAX_WINDOW, suite.getMaxWindow()));
+        suite.setFrameBytes(intArg(ARG_FRAME_BYTES, suite.getFrameBytes()));
+        suite.setMaxBatchRows(intArg(ARG_MAX_BATCH_ROWS, suite.getMaxBatchRows()));
+        suite.setCursorRows(intArg(ARG_CURSOR_ROWS, suite.getCursorRows()));
+        suite.setCursorColumns(intArg(ARG_CURSOR_COLUMNS, suite.getCursorColumns()));
+        suite.setCellBytes(intArg(ARG_CELL_BYTES, suite.getCellBytes()));
+        suite.setMaxSharedBytes(intArg(ARG_MAX_SHARED, suite.getMaxSharedBytes()));
+        suite.setRingBytes(intArg(ARG_RING_BYTES, suite.getRingBytes()));
+        suite.setAckBatch(intArg(ARG_ACK_BATCH, suite.getAckBatch()));
+        suite.setIoFileBytes(intArg(ARG_IO_FILE_BYTES, suite.getIoFileBytes()));
+        suite.setScanRows(intArg(ARG_SCAN_ROWS, suite.getScanRows()));
+        suite.setColdCache("true".equals(mArguments.getString(ARG_COLD_CACHE)));
+        suite.bindService();
+        if (!suite.waitForService(SERVICE_BIND_TIMEOUT_MILLIS)) {
+            Log.w(TAG, "MiscService not bound; service benchmarks will fail");
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(suite);
+        runner.setIterations(intArg(ARG_ITERATIONS, 100));
+        runner.setWarmupIterations(intArg(ARG_WARMUP, BenchmarkRunner.DEFAULT_WARMUP_ITERATIONS));
+        runner.setTrials(intArg(ARG_TRIALS, BenchmarkRunner.DEFAULT_TRIALS));
+        runner.setMaxTrials(intArg(ARG_MAX_TRIALS, BenchmarkRunner.DEFAULT_MAX_TRIALS));
+        runner.setCvThreshold(doubleArg(ARG_CV, BenchmarkRunner.DEFAULT_CV_THRESHOLD));
+        runner.setAllocCounting(!"false".equals(mArguments.getString(ARG_ALLOC)));
+
+        String names = mArguments.getString(ARG_BENCHMARKS);
+        List<String> benchmarks = TextUtils.isEmpty(names)
+                ? suite.getNames()
+                : Arrays.asList(TextUtils.split(names, ","));
+
+        List<BenchmarkResult> results = runner.runAll(benchmarks);
+        suite.unbindService();
+
+        StringBuilder report = new StringBuilder();
+        boolean failed = false;
+        for (BenchmarkResult r : results) {
+            report.append(r.name).append(":\n").append(r.toSummaryString()).append("\n\n");
+            failed |= r.isFailed();
+        }
+
+        String output = mArguments.getString(ARG_OUTPUT);
+        File dir = TextUtils.isEmpty(output) ? getTargetContext().getFilesDir() : new File(output);
+        String base = "results-" + System.currentTimeMillis();
+        try {
+            File json = new File(dir, base + ".json");
+            File csv = new File(dir, base + ".csv");
+            ResultWriter.writeJson(json, results);
+            ResultWriter.writeCsv(csv, results);
+            report.append("Wrote ").append(json).append(" and ").append(csv).append('\n');
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write results", e);
+            report.append("Failed to write results: ").append(e).append('\n');
+            failed = true;
+        }
+
+        Bundle status = new Bundle();
+        String runId = mArguments.getString(ARG_RUN_ID);
+        if (TextUtils.isEmpty(runId)) runId = ResultStore.newRunId();
+        String baseline = mArguments.getString(ARG_BASELINE);
+        ResultStore store = new ResultStore(getTargetContext());
+        try {
+            store.saveAll(runId, results);
+            report.append("Saved as run ").append(runId).append('\n');
+            if (!TextUtils.isEmpty(baseline)) {
+                int regressions = 0;
+                report.append("\nAgainst baseline ").append(baseline).append(":\n");
+                for (RegressionCheck.Comparison c : RegressionCheck.compareRuns(
+                        store.getHistograms(baseline), store.getHistograms(runId))) {
+                    report.append(c).append('\n');
+                    if (c.verdict == RegressionCheck.REGRESSION) regressions++;
+                }
+                status.putInt(REPORT_KEY_REGRESSIONS, regressions);
+            }
+        } finally {
+            store.close();
+        }
+
+        status.putString(REPORT_KEY_STREAMRESULT, report.toString());
+        finish(failed ? Activity.RESULT_CANCELED : Activity.RESULT_OK, status);
+    }
+
+    private double doubleArg(String key, double defaultValue) {
+        String value = mArguments.getString(key);
+        if (TextUtils.isEmpty(value)) return defaultValue;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private int intArg(String key, int defaultValue) {
+        String value = mArguments.getString(key);
+        if (TextUtils.isEmpty(value)) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+}
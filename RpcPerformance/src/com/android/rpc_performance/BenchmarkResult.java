@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Outcome of running one {@link Benchmark}: the merged histogram over the
+ * steady-state window of measured trials, the per-trial histograms it was
+ * built from, and how stable those trials were.
+ */
+public class BenchmarkResult {
+
+    public final String name;
+    public final int iterations;
+    public final int warmupIterations;
+    public final long timestampMillis;
+
+    /** All samples from the reported trials. */
+    public final LatencyHistogram histogram = new LatencyHistogram();
+    public final List<LatencyHistogram> trials = new ArrayList<LatencyHistogram>();
+
+    /** Benchmark-specific scalar metrics, e.g. throughput. */
+    public final Map<String, Double> extras = new LinkedHashMap<String, Double>();
+
+    /** Benchmark-specific labelled distributions, e.g. one per client thread. */
+    public final Map<String, LatencyHistogram> series =
+            new LinkedHashMap<String, LatencyHistogram>();
+
+    private boolean mFailed;
+    private int mDiscardedTrials;
+    private double mTrialCv;
+    private boolean mSettled = true;
+
+    public BenchmarkResult(String name, int iterations, int warmupIterations) {
+        this.name = name;
+        this.iterations = iterations;
+        this.warmupIterations = warmupIterations;
+        this.timestampMillis = System.currentTimeMillis();
+    }
+
+    void addTrial(LatencyHistogram trial) {
+        trials.add(trial);
+        histogram.add(trial);
+    }
+
+    public void putExtra(String key, double value) {
+        extras.put(key, value);
+    }
+
+    public void putSeries(String label, LatencyHistogram hist) {
+        series.put(label, hist);
+    }
+
+    void setFailed() {
+        mFailed = true;
+    }
+
+    public boolean isFailed() {
+        return mFailed;
+    }
+
+    void setStability(int discardedTrials, double trialCv, boolean settled) {
+        mDiscardedTrials = discardedTrials;
+        mTrialCv = trialCv;
+        mSettled = settled;
+    }
+
+    /** Trials run after warmup but dropped because results had not settled yet. */
+    public int getDiscardedTrials() {
+        return mDiscardedTrials;
+    }
+
+    /** Coefficient of variation of the per-trial medians in the reported window. */
+    public double getTrialCv() {
+        return mTrialCv;
+    }
+
+    /** False if the trial medians never got under the CV threshold. */
+    public boolean isSettled() {
+        return mSettled;
+    }
+
+    /** Samples above the upper Tukey fence, Q3 + 1.5 * IQR. */
+    public long getMildOutliers() {
+        return countAboveFence(1.5);
+    }
+
+    /** Samples above the far Tukey fence, Q3 + 3 * IQR. */
+    public long getExtremeOutliers() {
+        return countAboveFence(3.0);
+    }
+
+    private long countAboveFence(double k) {
+        long q1 = histogram.getPercentile(25);
+        long q3 = histogram.getPercentile(75);
+        return histogram.getCountAbove(q3 + (long) (k * (q3 - q1)));
+    }
+
+    /** Text for the result TextViews and the instrumentation status stream. */
+    public String toSummaryString() {
+        if (mFailed) return "failed";
+        return histogram.toSummaryString() + "\n"
+            + trials.size() + " trials, cv " + percent(mTrialCv)
+            + (mSettled ? "" : " UNSETTLED")
+            + (mDiscardedTrials > 0 ? ", " + mDiscardedTrials + " dropped" : "") + "\n"
+            + "outliers: " + getMildOutliers() + " mild, " + getExtremeOutliers() + " extreme"
+            + extrasString();
+    }
+
+    private String extrasString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Double> e : extras.entrySet()) {
+            sb.append('\n').append(e.getKey()).append(' ');
+            sb.append(String.format(Locale.US, "%.4g", e.getValue()));
+        }
+        return sb.toString();
+    }
+
+    static String percent(double fraction) {
+        return String.format(Locale.US, "%.1f%%", fraction * 100.0);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.os.Debug;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drives benchmarks from a {@link BenchmarkSuite}: warmup iterations whose
+ * samples are thrown away (class loading, JIT, cold caches), then measured
+ * trials of a fixed iteration count each.
+ *
+ * Results are only reported once they have settled: the last
+ * {@link #setTrials trials} trials must have per-trial medians whose
+ * coefficient of variation is at most {@link #setCvThreshold the threshold}.
+ * Until then more trials are run, up to {@link #setMaxTrials the maximum},
+ * and the oldest ones are dropped from the reported window.
+ *
+ * Unless turned off with {@link #setAllocCounting}, each trial also runs
+ * with Dalvik's allocation counting on.  The result gets, averaged over
+ * the reported trials:
+ *   alloc_bytes_per_op, alloc_objects_per_op
+ *       allocated by the calling thread, per iteration
+ *   process_alloc_bytes_per_op, process_alloc_objects_per_op
+ *       the same for the whole process, which includes the worker and
+ *       binder threads some benchmarks use
+ *   gc_per_trial, gc_freed_bytes_per_trial
+ * The VM doesn't expose GC pause times here; read the GC counts next to
+ * the tail latencies instead.
+ *
+ * Trials are likewise wrapped in a {@link CpuSampler}, with MiscService as
+ * the remote process when bound, for CPU time and context switches per
+ * iteration.
+ */
+public class BenchmarkRunner {
+
+    private static final String TAG = "BenchmarkRunner";
+
+    public static final int DEFAULT_WARMUP_ITERATIONS = 100;
+    public static final int DEFAULT_TRIALS = 5;
+    public static final int DEFAULT_MAX_TRIALS = 20;
+    public static final double DEFAULT_CV_THRESHOLD = 0.05;
+
+    private final BenchmarkSuite mSuite;
+    private int mIterations = 100;
+    private int mWarmupIterations = DEFAULT_WARMUP_ITERATIONS;
+    private int mTrials = DEFAULT_TRIALS;
+    private int mMaxTrials = DEFAULT_MAX_TRIALS;
+    private double mCvThreshold = DEFAULT_CV_THRESHOLD;
+    private boolean mAllocCounting = true;
+
+    public BenchmarkRunner(BenchmarkSuite suite) {
+        mSuite = suite;
+    }
+
+    public void setIterations(int iterations) {
+        mIterations = Math.max(1, iterations);
+    }
+
+    public void setWarmupIterations(int warmupIterations) {
+        mWarmupIterations = Math.max(0, warmupIterations);
+    }
+
+    /** Number of trials in the reported window. */
+    public void setTrials(int trials) {
+        mTrials = Math.max(1, trials);
+    }
+
+    /** Upper bound on trials run while waiting for results to settle. */
+    public void setMaxTrials(int maxTrials) {
+        mMaxTrials = Math.max(1, maxTrials);
+    }
+
+    public void setCvThreshold(double cvThreshold) {
+        mCvThreshold = cvThreshold;
+    }
+
+    /** Whether to count allocations and GCs during trials. */
+    public void setAllocCounting(boolean allocCounting) {
+        mAllocCounting = allocCounting;
+    }
+
+    /** Runs one benchmark by name.  Unknown names produce a failed result. */
+    public BenchmarkResult run(String name) {
+        BenchmarkResult result = new BenchmarkResult(name, mIterations, mWarmupIterations);
+        Benchmark benchmark = mSuite.get(name);
+        if (benchmark == null) {
+            Log.w(TAG, "Unknown benchmark: " + name);
+            result.setFailed();
+            return result;
+        }
+
+        if (mWarmupIterations > 0) {
+            if (!benchmark.run(mWarmupIterations, new LatencyHistogram())) {
+                Log.w(TAG, name + " failed during warmup");
+                result.setFailed();
+                return result;
+            }
+        }
+
+        int maxTrials = Math.max(mTrials, mMaxTrials);
+        List<LatencyHistogram> trials = new ArrayList<LatencyHistogram>(maxTrials);
+        double[] medians = new double[maxTrials];
+        long[][] allocs = new long[maxTrials][];
+        long[][] cpu = new long[maxTrials][];
+        CpuSampler sampler = new CpuSampler(servicePid());
+        double cv = 0.0;
+        boolean settled = false;
+        while (trials.size() < maxTrials) {
+            LatencyHistogram hist = new LatencyHistogram();
+            // The sampler allocates while reading /proc, so keep it outside
+            // the allocation counting window.
+            sampler.start();
+            if (mAllocCounting) startAllocCounting();
+            boolean ok = benchmark.run(mIterations, hist);
+            if (mAllocCounting) allocs[trials.size()] = stopAllocCounting();
+            cpu[trials.size()] = sampler.stop();
+            if (!ok) {
+                sampler.close();
+                Log.w(TAG, name + " failed in trial " + trials.size());
+                result.setFailed();
+                return result;
+            }
+            medians[trials.size()] = hist.getPercentile(50);
+            trials.add(hist);
+            if (trials.size() >= mTrials) {
+                cv = coefficientOfVariation(medians, trials.size() - mTrials, trials.size());
+                if (cv <= mCvThreshold) {
+                    settled = true;
+                    break;
+                }
+            }
+        }
+
+        int first = trials.size() - mTrials;
+        for (int i = first; i < trials.size(); i++) {
+            result.addTrial(trials.get(i));
+        }
+        result.setStability(first, cv, settled);
+        if (mAllocCounting) {
+            reportAllocs(result, allocs, first, trials.size());
+        }
+        long[] cpuUsed = new long[CpuSampler.SAMPLE_SIZE];
+        for (int i = first; i < trials.size(); i++) {
+            for (int j = 0; j < cpuUsed.length; j++) cpuUsed[j] += cpu[i][j];
+        }
+        sampler.report(result, cpuUsed, (double) mIterations * mTrials);
+        sampler.close();
+        benchmark.report(result);
+        if (!settled) {
+            Log.w(TAG, name + " did not settle after " + trials.size() + " trials; cv=" + cv);
+        }
+        Log.i(TAG, name + ": " + result.histogram.toJson());
+        return result;
+    }
+
+    private int servicePid() {
+        IService stub = mSuite.getServiceStub();
+        if (stub == null) return 0;
+        try {
+            return stub.getPid();
+        } catch (RemoteException e) {
+            Log.w(TAG, "getPid failed: " + e);
+            return 0;
+        }
+    }
+
+    // Indexes into the arrays from stopAllocCounting().
+    private static final int THREAD_OBJECTS = 0;
+    private static final int THREAD_BYTES = 1;
+    private static final int GLOBAL_OBJECTS = 2;
+    private static final int GLOBAL_BYTES = 3;
+    private static final int GC_COUNT = 4;
+    private static final int FREED_BYTES = 5;
+
+    private static void startAllocCounting() {
+        Debug.resetAllCounts();
+        Debug.startAllocCounting();
+    }
+
+    private static long[] stopAllocCounting() {
+        Debug.stopAllocCounting();
+        return new long[] {
+            Debug.getThreadAllocCount(),
+            Debug.getThreadAllocSize(),
+            Debug.getGlobalAllocCount(),
+            Debug.getGlobalAllocSize(),
+            Debug.getGlobalGcInvocationCount(),
+            Debug.getGlobalFreedSize(),
+        };
+    }
+
+    private void reportAllocs(BenchmarkResult result, long[][] allocs, int from, int to) {
+        long[] sums = new long[FREED_BYTES + 1];
+        for (int i = from; i < to; i++) {
+            for (int j = 0; j < sums.length; j++) sums[j] += allocs[i][j];
+        }
+        double ops = (double) mIterations * (to - from);
+        double trials = to - from;
+        result.putExtra("alloc_bytes_per_op", sums[THREAD_BYTES] / ops);
+        result.putExtra("alloc_objects_per_op", sums[THREAD_OBJECTS] / ops);
+        result.putExtra("process_alloc_bytes_per_op", sums[GLOBAL_BYTES] / ops);
+        result.putExtra("process_alloc_objects_per_op", sums[GLOBAL_OBJECTS] / ops);
+        result.putExtra("gc_per_trial", sums[GC_COUNT] / trials);
+        result.putExtra("gc_freed_bytes_per_trial", sums[FREED_BYTES] / trials);
+    }
+
+    // Sample coefficient of variation of values[from, to).
+    static double coefficientOfVariation(double[] values, int from, int to) {
+        int n = to - from;
+        if (n < 2) return 0.0;
+        double sum = 0.0;
+        for (int i = from; i < to; i++) sum += values[i];
+        double mean = sum / n;
+        if (mean <= 0.0) return 0.0;
+        double squares = 0.0;
+        for (int i = from; i < to; i++) {
+            double d = values[i] - mean;
+            squares += d * d;
+        }
+        return Math.sqrt(squares / (n - 1)) / mean;
+    }
+
+    public List<BenchmarkResult> runAll(List<String> names) {
+        List<BenchmarkResult> results = new ArrayList<BenchmarkResult>(names.size());
+        for (String name : names) {
+            results.add(run(name));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,916 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.IContentProvider;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.StrictMode;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * All RpcPerformance benchmark loops, registered by name so they can be run
+ * from the UI or headless.  Also owns the binding to {@link MiscService}.
+ */
+public class BenchmarkSuite {
+
+    private static final String TAG = "BenchmarkSuite";
+
+    static final Uri SYSTEM_SETTINGS_URI = Uri.parse("content://settings/system");
+
+    // No-op provider URLs:
+    static final Uri CROSS_PROC_PROVIDER_URI = Uri.parse("content://com.android.rpc_performance/");
+    static final Uri IN_PROC_PROVIDER_URI = Uri.parse("content://com.android.rpc_performance.local/");
+
+    public static final String FILE_READ = "file_read";
+    public static final String FILE_WRITE = "file_write";
+    public static final String SETTINGS_READ = "settings_read";
+    public static final String SETTINGS_SLEEP_READ = "settings_sleep_read";
+    public static final String SETTINGS_WRITE = "settings_write";
+    public static final String SETTINGS_WRITE_DUP = "settings_write_dup";
+    public static final String NOOP_XPROC = "noop_provider_xproc";
+    public static final String NOOP_INPROC = "noop_provider_inproc";
+    public static final String LOCAL_SOCKET = "localsocket";
+    public static final String SERVICE_VOID = "service_void";
+    public static final String SERVICE_VOID_ONEWAY = "service_void_oneway";
+    public static final String SERVICE_ONEWAY_ACKED = "service_oneway_acked";
+    public static final String SERVICE_STRING = "service_string";
+    public static final String PING_MEDIA = "ping_media";
+    public static final String PING_ACTIVITY = "ping_activity";
+    public static final String PROC_READ = "proc_read";
+    public static final String CALL = "call";
+    public static final String CALL_MISSING = "call_missing";
+    public static final String PARCEL_OBTAIN = "parcel_obtain";
+    public static final String PARCEL_RECYCLE = "parcel_recycle";
+    public static final String STRICTMODE = "strictmode";
+    public static final String BINDER_STRICTMODE = "binder_strictmode";
+    public static final String SERVICE_CONCURRENT = "service_concurrent";
+    public static final String SERVICE_STRING_CONCURRENT = "service_string_concurrent";
+    public static final String SERVICE_CONCURRENT_SWEEP = "service_concurrent_sweep";
+    public static final String LOCAL_SOCKET_CONCURRENT = "localsocket_concurrent";
+    public static final String LOCAL_SOCKET_PIPELINED = "localsocket_pipelined";
+    public static final String PROVIDER_INSERT = "provider_insert";
+    public static final String PROVIDER_BULK_INSERT = "provider_bulk_insert";
+    public static final String PROVIDER_APPLY_BATCH = "provider_apply_batch";
+    public static final String PROVIDER_CALL_BATCH = "provider_call_batch";
+    public static final String CURSOR_WALK_XPROC = "cursor_walk_xproc";
+    public static final String CURSOR_WALK_INPROC = "cursor_walk_inproc";
+    public static final String SHARED_RING = "shared_ring";
+    public static final String SHARED_BINDER_BYTES = "shared_binder_bytes";
+    public static final String SHARED_BINDER_STRING = "shared_binder_string";
+    public static final String IO_READ_RAF = "io_read_raf";
+    public static final String IO_READ_CHANNEL = "io_read_channel";
+    public static final String IO_READ_MMAP = "io_read_mmap";
+    public static final String IO_READ_STREAM = "io_read_stream";
+    public static final String IO_WRITE_RAF = "io_write_raf";
+    public static final String IO_WRITE_CHANNEL = "io_write_channel";
+    public static final String IO_WRITE_MMAP = "io_write_mmap";
+    public static final String IO_WRITE_STREAM = "io_write_stream";
+    public static final String IO_WRITE_RAF_FSYNC = "io_write_raf_fsync";
+    public static final String IO_WRITE_CHANNEL_FSYNC = "io_write_channel_fsync";
+    public static final String IO_WRITE_MMAP_FSYNC = "io_write_mmap_fsync";
+    public static final String IO_WRITE_STREAM_FSYNC = "io_write_stream_fsync";
+    public static final String DURABLE_NO_SYNC = "durable_nosync";
+    public static final String DURABLE_FD_SYNC = "durable_fd_sync";
+    public static final String DURABLE_FORCE = "durable_force";
+    public static final String DURABLE_RENAME = "durable_rename";
+    public static final String DURABLE_SQLITE_JOURNAL = "durable_sqlite_journal";
+    public static final String DURABLE_SQLITE_WAL = "durable_sqlite_wal";
+    public static final String PROC_SELF_STAT_REUSED = "proc_self_stat_reused";
+    public static final String PROC_SELF_STAT_FRESH = "proc_self_stat_fresh";
+    public static final String PROC_STAT_REUSED = "proc_stat_reused";
+    public static final String PROC_STAT_FRESH = "proc_stat_fresh";
+    public static final String PROC_MEMINFO_REUSED = "proc_meminfo_reused";
+    public static final String PROC_MEMINFO_FRESH = "proc_meminfo_fresh";
+    public static final String SETTINGS_READ_CACHED = "settings_read_cached";
+    public static final String SETTINGS_READ_CALL = "settings_read_call";
+    public static final String SETTINGS_READ_QUERY = "settings_read_query";
+    public static final String PROVIDER_ACQUIRE_XPROC = "provider_acquire_xproc";
+    public static final String PROVIDER_ACQUIRE_INPROC = "provider_acquire_inproc";
+    public static final String PROVIDER_CACHED_XPROC = "provider_cached_xproc";
+    public static final String PROVIDER_CACHED_INPROC = "provider_cached_inproc";
+    public static final String PROVIDER_WORKLOAD = "provider_workload";
+    public static final String PAYLOAD_BINDER = "payload_binder";
+    public static final String PAYLOAD_SOCKET = "payload_socket";
+    public static final String PAYLOAD_XPROC = "payload_provider_xproc";
+    public static final String PAYLOAD_INPROC = "payload_provider_inproc";
+
+    public static final int DEFAULT_MAX_PAYLOAD_BYTES = 1024 * 1024;
+    public static final int MAX_WINDOW = 256;
+    public static final int DEFAULT_FRAME_BYTES = 64;
+    public static final int DEFAULT_MAX_BATCH_ROWS = 10000;
+    public static final int DEFAULT_CURSOR_ROWS = 10000;
+    public static final int DEFAULT_ACK_BATCH = 16;
+    public static final int DEFAULT_IO_FILE_BYTES = 16 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SHARED_BYTES = 8 * 1024 * 1024;
+    public static final int DEFAULT_RING_BYTES = 1024 * 1024;
+    public static final int DEFAULT_CURSOR_COLUMNS = 8;
+    public static final int DEFAULT_CELL_BYTES = 32;
+    public static final int DEFAULT_SCAN_ROWS = 100;
+
+    private final Context mContext;
+    private final ContentResolver cr;
+    private final LinkedHashMap<String, Benchmark> mBenchmarks =
+            new LinkedHashMap<String, Benchmark>();
+
+    private volatile IService mServiceStub = null;
+    private volatile String mTraceName = null;
+    private volatile int mClientThreads = 8;
+    private volatile int mMaxPayloadBytes = DEFAULT_MAX_PAYLOAD_BYTES;
+    private volatile int mMaxWindow = MAX_WINDOW;
+    private volatile int mFrameBytes = DEFAULT_FRAME_BYTES;
+    private volatile int mMaxBatchRows = DEFAULT_MAX_BATCH_ROWS;
+    private volatile int mCursorRows = DEFAULT_CURSOR_ROWS;
+    private volatile int mAckBatch = DEFAULT_ACK_BATCH;
+    private volatile int mIoFileBytes = DEFAULT_IO_FILE_BYTES;
+    private volatile boolean mColdCache = false;
+    private volatile int mMaxSharedBytes = DEFAULT_MAX_SHARED_BYTES;
+    private volatile int mRingBytes = DEFAULT_RING_BYTES;
+    private volatile int mCursorColumns = DEFAULT_CURSOR_COLUMNS;
+    private volatile int mCellBytes = DEFAULT_CELL_BYTES;
+    private volatile int mScanRows = DEFAULT_SCAN_ROWS;
+    private boolean mBound = false;
+
+    private final Object mServiceLock = new Object();
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            synchronized (mServiceLock) {
+                mServiceStub = IService.Stub.asInterface(service);
+                mServiceLock.notifyAll();
+            }
+            Log.v(TAG, "Service bound");
+        }
+
+        public void onServiceDisconnected(ComponentName name) {
+            mServiceStub = null;
+            Log.v(TAG, "Service unbound");
+        };
+    };
+
+    public BenchmarkSuite(Context context) {
+        mContext = context;
+        cr = context.getContentResolver();
+        registerBuiltins();
+    }
+
+    public void bindService() {
+        mBound = mContext.bindService(new Intent(mContext, MiscService.class),
+                                      serviceConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    public void unbindService() {
+        if (mBound) {
+            mContext.unbindService(serviceConnection);
+            mBound = false;
+        }
+        mServiceStub = null;
+    }
+
+    /**
+     * Blocks until {@link MiscService} is connected.  Must not be called on
+     * the main thread, which delivers the connection callback.
+     */
+    public boolean waitForService(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (mServiceLock) {
+            while (mServiceStub == null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                try {
+                    mServiceLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public IService getServiceStub() {
+        return mServiceStub;
+    }
+
+    public Context getContext() {
+        return mContext;
+    }
+
+    /** Method trace file name prefix for the service side, or null. */
+    public void setTraceName(String name) {
+        mTraceName = name;
+    }
+
+    /** Client thread count for the concurrent benchmarks, 1..64. */
+    public void setClientThreads(int threads) {
+        mClientThreads = Math.max(1, Math.min(ConcurrentServiceBenchmark.MAX_THREADS, threads));
+    }
+
+    public int getClientThreads() {
+        return mClientThreads;
+    }
+
+    /** Largest payload for the payload sweeps; rounded down to a power of two. */
+    public void setMaxPayloadBytes(int bytes) {
+        mMaxPayloadBytes = Integer.highestOneBit(Math.max(1, bytes));
+    }
+
+    public int getMaxPayloadBytes() {
+        return mMaxPayloadBytes;
+    }
+
+    /** Largest in-flight window for the pipelined socket benchmark, 1..256. */
+    public void setMaxWindow(int window) {
+        mMaxWindow = Integer.highestOneBit(Math.max(1, Math.min(MAX_WINDOW, window)));
+    }
+
+    public int getMaxWindow() {
+        return mMaxWindow;
+    }
+
+    /** Payload bytes per frame for the pipelined socket benchmark. */
+    public void setFrameBytes(int bytes) {
+        mFrameBytes = Math.max(1, bytes);
+    }
+
+    public int getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    /** Largest batch for the provider batch benchmarks; steps are powers of ten. */
+    public void setMaxBatchRows(int rows) {
+        mMaxBatchRows = Math.max(1, rows);
+    }
+
+    public int getMaxBatchRows() {
+        return mMaxBatchRows;
+    }
+
+    /** Rows in the synthetic result set for the cursor walk benchmarks. */
+    public void setCursorRows(int rows) {
+        mCursorRows = Math.max(1, rows);
+    }
+
+    public int getCursorRows() {
+        return mCursorRows;
+    }
+
+    /** String columns per synthetic row, besides _id. */
+    public void setCursorColumns(int columns) {
+        mCursorColumns = Math.max(1, columns);
+    }
+
+    public int getCursorColumns() {
+        return mCursorColumns;
+    }
+
+    /** Bytes in each synthetic string column. */
+    public void setCellBytes(int bytes) {
+        mCellBytes = Math.max(0, bytes);
+    }
+
+    public int getCellBytes() {
+        return mCellBytes;
+    }
+
+    /** Oneway calls per acknowledgement from the service. */
+    public void setAckBatch(int calls) {
+        mAckBatch = Math.max(1, calls);
+    }
+
+    public int getAckBatch() {
+        return mAckBatch;
+    }
+
+    /** Size of the file the I/O benchmarks work in; at least 4MB is used. */
+    public void setIoFileBytes(int bytes) {
+        mIoFileBytes = Math.max(1, bytes);
+    }
+
+    public int getIoFileBytes() {
+        return mIoFileBytes;
+    }
+
+    /** Whether the I/O benchmarks should try to drop the page cache first. */
+    public void setColdCache(boolean coldCache) {
+        mColdCache = coldCache;
+    }
+
+    public boolean getColdCache() {
+        return mColdCache;
+    }
+
+    /** Largest payload for the shared memory comparison; rounded down to a power of two. */
+    public void setMaxSharedBytes(int bytes) {
+        mMaxSharedBytes = Integer.highestOneBit(Math.max(1, bytes));
+    }
+
+    public int getMaxSharedBytes() {
+        return mMaxSharedBytes;
+    }
+
+    /** Size of the ashmem ring shared with the service. */
+    public void setRingBytes(int bytes) {
+        mRingBytes = Math.max(4096, bytes);
+    }
+
+    public int getRingBytes() {
+        return mRingBytes;
+    }
+
+    /** Rows read by each range scan in the provider workload benchmark. */
+    public void setScanRows(int rows) {
+        mScanRows = Math.max(1, rows);
+    }
+
+    public int getScanRows() {
+        return mScanRows;
+    }
+
+    public void register(Benchmark benchmark) {
+        mBenchmarks.put(benchmark.getName(), benchmark);
+    }
+
+    public Benchmark get(String name) {
+        return mBenchmarks.get(name);
+    }
+
+    public List<String> getNames() {
+        return new ArrayList<String>(mBenchmarks.keySet());
+    }
+
+    private void registerBuiltins() {
+        register(new Benchmark(FILE_READ) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return fileReadLoop(iterations, hist);
+                }});
+        register(new Benchmark(FILE_WRITE) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return fileWriteLoop(iterations, hist);
+                }});
+        register(new Benchmark(SETTINGS_READ) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return settingsProviderLoop(MODE_READ, 0, iterations, hist);
+                }});
+        register(new Benchmark(SETTINGS_SLEEP_READ) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return settingsProviderLoop(MODE_READ, 100, iterations, hist);
+                }});
+        register(new Benchmark(SETTINGS_WRITE) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return settingsProviderLoop(MODE_WRITE, 0, iterations, hist);
+                }});
+        register(new Benchmark(SETTINGS_WRITE_DUP) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return settingsProviderLoop(MODE_WRITE_DUP, 0, iterations, hist);
+                }});
+        register(new Benchmark(NOOP_XPROC) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return noOpProviderLoop(CROSS_PROC_PROVIDER_URI, iterations, hist);
+                }});
+        register(new Benchmark(NOOP_INPROC) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return noOpProviderLoop(IN_PROC_PROVIDER_URI, iterations, hist);
+                }});
+        register(new Benchmark(LOCAL_SOCKET) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return localSocketLoop(iterations, hist);
+                }});
+        register(new Benchmark(SERVICE_VOID) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return serviceLoop(null, iterations, hist);
+                }});
+        register(new Benchmark(SERVICE_VOID_ONEWAY) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return onewayServiceLoop(iterations, hist);
+                }});
+        register(new Benchmark(SERVICE_STRING) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return serviceLoop("xyzzy", iterations, hist);
+                }});
+        register(new Benchmark(PING_MEDIA) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return pingServiceLoop("media.player", iterations, hist);
+                }});
+        register(new Benchmark(PING_ACTIVITY) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return pingServiceLoop("activity", iterations, hist);
+                }});
+        register(new Benchmark(PROC_READ) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return procLoop(iterations, hist);
+                }});
+        register(new Benchmark(CALL) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return callLoop("ringtone", iterations, hist);
+                }});
+        register(new Benchmark(CALL_MISSING) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return callLoop("XXXXXXXX", iterations, hist);  // non-existent
+                }});
+        register(new Benchmark(PARCEL_OBTAIN) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return parcelLoop(true, iterations, hist);
+                }});
+        register(new Benchmark(PARCEL_RECYCLE) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return parcelLoop(false, iterations, hist);
+                }});
+        register(new Benchmark(STRICTMODE) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return strictModeLoop(true, iterations, hist);
+                }});
+        register(new Benchmark(BINDER_STRICTMODE) {
+                public boolean run(int iterations, LatencyHistogram hist) {
+                    return strictModeLoop(false, iterations, hist);
+                }});
+        register(new OnewayServiceBenchmark(SERVICE_ONEWAY_ACKED, this));
+        register(new ConcurrentServiceBenchmark(SERVICE_CONCURRENT, this, null, false));
+        register(new ConcurrentServiceBenchmark(SERVICE_STRING_CONCURRENT, this, "xyzzy", false));
+        register(new ConcurrentServiceBenchmark(SERVICE_CONCURRENT_SWEEP, this, null, true));
+        register(new ConcurrentSocketBenchmark(LOCAL_SOCKET_CONCURRENT, this));
+        register(new PipelinedSocketBenchmark(LOCAL_SOCKET_PIPELINED, this));
+        register(new ProviderBatchBenchmark(PROVIDER_INSERT, this, CROSS_PROC_PROVIDER_URI,
+                ProviderBatchBenchmark.MODE_INSERT));
+        register(new ProviderBatchBenchmark(PROVIDER_BULK_INSERT, this, CROSS_PROC_PROVIDER_URI,
+                ProviderBatchBenchmark.MODE_BULK_INSERT));
+        register(new ProviderBatchBenchmark(PROVIDER_APPLY_BATCH, this, CROSS_PROC_PROVIDER_URI,
+                ProviderBatchBenchmark.MODE_APPLY_BATCH));
+        register(new ProviderBatchBenchmark(PROVIDER_CALL_BATCH, this, CROSS_PROC_PROVIDER_URI,
+                ProviderBatchBenchmark.MODE_CALL));
+        register(new CursorWalkBenchmark(CURSOR_WALK_XPROC, this, CROSS_PROC_PROVIDER_URI));
+        register(new CursorWalkBenchmark(CURSOR_WALK_INPROC, this, IN_PROC_PROVIDER_URI));
+        register(new SharedMemoryBenchmark(SHARED_RING, this,
+                SharedMemoryBenchmark.TRANSPORT_SHARED));
+        register(new SharedMemoryBenchmark(SHARED_BINDER_BYTES, this,
+                SharedMemoryBenchmark.TRANSPORT_BYTES));
+        register(new SharedMemoryBenchmark(SHARED_BINDER_STRING, this,
+                SharedMemoryBenchmark.TRANSPORT_STRING));
+        register(new FileIoBenchmark(IO_READ_RAF, this, FileIoBenchmark.API_RAF,
+                false, false));
+        register(new FileIoBenchmark(IO_READ_CHANNEL, this, FileIoBenchmark.API_CHANNEL,
+                false, false));
+        register(new FileIoBenchmark(IO_READ_MMAP, this, FileIoBenchmark.API_MMAP,
+                false, false));
+        register(new FileIoBenchmark(IO_READ_STREAM, this, FileIoBenchmark.API_STREAM,
+                false, false));
+        register(new FileIoBenchmark(IO_WRITE_RAF, this, FileIoBenchmark.API_RAF,
+                true, false));
+        register(new FileIoBenchmark(IO_WRITE_CHANNEL, this, FileIoBenchmark.API_CHANNEL,
+                true, false));
+        register(new FileIoBenchmark(IO_WRITE_MMAP, this, FileIoBenchmark.API_MMAP,
+                true, false));
+        register(new FileIoBenchmark(IO_WRITE_STREAM, this, FileIoBenchmark.API_STREAM,
+                true, false));
+        register(new FileIoBenchmark(IO_WRITE_RAF_FSYNC, this, FileIoBenchmark.API_RAF,
+                true, true));
+        register(new FileIoBenchmark(IO_WRITE_CHANNEL_FSYNC, this, FileIoBenchmark.API_CHANNEL,
+                true, true));
+        register(new FileIoBenchmark(IO_WRITE_MMAP_FSYNC, this, FileIoBenchmark.API_MMAP,
+                true, true));
+        register(new FileIoBenchmark(IO_WRITE_STREAM_FSYNC, this, FileIoBenchmark.API_STREAM,
+                true, true));
+        register(new DurableWriteBenchmark(DURABLE_NO_SYNC, this,
+                DurableWriteBenchmark.MODE_NO_SYNC));
+        register(new DurableWriteBenchmark(DURABLE_FD_SYNC, this,
+                DurableWriteBenchmark.MODE_FD_SYNC));
+        register(new DurableWriteBenchmark(DURABLE_FORCE, this,
+                DurableWriteBenchmark.MODE_FORCE));
+        register(new DurableWriteBenchmark(DURABLE_RENAME, this,
+                DurableWriteBenchmark.MODE_RENAME));
+        register(new DurableWriteBenchmark(DURABLE_SQLITE_JOURNAL, this,
+                DurableWriteBenchmark.MODE_SQLITE_JOURNAL));
+        register(new DurableWriteBenchmark(DURABLE_SQLITE_WAL, this,
+                DurableWriteBenchmark.MODE_SQLITE_WAL));
+        register(new ProcReadBenchmark(PROC_SELF_STAT_REUSED, ProcReadBenchmark.FILE_SELF_STAT, true));
+        register(new ProcReadBenchmark(PROC_SELF_STAT_FRESH, ProcReadBenchmark.FILE_SELF_STAT, false));
+        register(new ProcReadBenchmark(PROC_STAT_REUSED, ProcReadBenchmark.FILE_STAT, true));
+        register(new ProcReadBenchmark(PROC_STAT_FRESH, ProcReadBenchmark.FILE_STAT, false));
+        register(new ProcReadBenchmark(PROC_MEMINFO_REUSED, ProcReadBenchmark.FILE_MEMINFO, true));
+        register(new ProcReadBenchmark(PROC_MEMINFO_FRESH, ProcReadBenchmark.FILE_MEMINFO, false));
+        register(new SettingsReadBenchmark(SETTINGS_READ_CACHED, this,
+                SettingsReadBenchmark.MODE_CACHED));
+        register(new SettingsReadBenchmark(SETTINGS_READ_CALL, this,
+                SettingsReadBenchmark.MODE_CALL));
+        register(new SettingsReadBenchmark(SETTINGS_READ_QUERY, this,
+                SettingsReadBenchmark.MODE_QUERY));
+        register(new ProviderAcquireBenchmark(PROVIDER_ACQUIRE_XPROC, this,
+                CROSS_PROC_PROVIDER_URI, ProviderAcquireBenchmark.MODE_ACQUIRE));
+        register(new ProviderAcquireBenchmark(PROVIDER_ACQUIRE_INPROC, this,
+                IN_PROC_PROVIDER_URI, ProviderAcquireBenchmark.MODE_ACQUIRE));
+        register(new ProviderAcquireBenchmark(PROVIDER_CACHED_XPROC, this,
+                CROSS_PROC_PROVIDER_URI, ProviderAcquireBenchmark.MODE_CACHED));
+        register(new ProviderAcquireBenchmark(PROVIDER_CACHED_INPROC, this,
+                IN_PROC_PROVIDER_URI, ProviderAcquireBenchmark.MODE_CACHED));
+        register(new ProviderWorkloadBenchmark(PROVIDER_WORKLOAD, this));
+        register(new PayloadSweepBenchmark(PAYLOAD_BINDER, this,
+                PayloadSweepBenchmark.TRANSPORT_BINDER, null));
+        register(new PayloadSweepBenchmark(PAYLOAD_SOCKET, this,
+                PayloadSweepBenchmark.TRANSPORT_SOCKET, null));
+        register(new PayloadSweepBenchmark(PAYLOAD_XPROC, this,
+                PayloadSweepBenchmark.TRANSPORT_PROVIDER, CROSS_PROC_PROVIDER_URI));
+        register(new PayloadSweepBenchmark(PAYLOAD_INPROC, this,
+                PayloadSweepBenchmark.TRANSPORT_PROVIDER, IN_PROC_PROVIDER_URI));
+    }
+
+    private boolean fileReadLoop(int iterations, LatencyHistogram hist) {
+        RandomAccessFile raf = null;
+        File filename = mContext.getFileStreamPath("test.dat");
+        try {
+            byte[] buf = new byte[512];
+
+            raf = new RandomAccessFile(filename, "rw");
+            raf.write(buf);
+            raf.close();
+            raf = null;
+
+            // The data's almost certainly cached -- it's not clear what we're testing here
+            raf = new RandomAccessFile(filename, "r");
+            for (int i = 0; i < iterations; i++) {
+                long lastTime = System.nanoTime();
+                raf.seek(0);
+                raf.read(buf);
+                hist.record(System.nanoTime() - lastTime);
+            }
+
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "File read failed", e);
+            return false;
+        } finally {
+            try { if (raf != null) raf.close(); } catch (IOException e) {}
+        }
+    }
+
+    private boolean fileWriteLoop(int iterations, LatencyHistogram hist) {
+        RandomAccessFile raf = null;
+        File filename = mContext.getFileStreamPath("test.dat");
+        try {
+            byte[] buf = new byte[512];
+            for (int i = 0; i < iterations; i++) {
+                for (int j = 0; j < buf.length; j++) buf[j] = (byte) (i + j);
+                long lastTime = System.nanoTime();
+                raf = new RandomAccessFile(filename, "rw");
+                raf.write(buf);
+                raf.close();
+                raf = null;
+                hist.record(System.nanoTime() - lastTime);
+            }
+
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "File read failed", e);
+            return false;
+        } finally {
+            try { if (raf != null) raf.close(); } catch (IOException e) {}
+        }
+    }
+
+    // Records successful dummy query times.
+    private boolean noOpProviderLoop(Uri uri, int iterations, LatencyHistogram hist) {
+        int failures = 0;
+        for (int i = 0; i < iterations; i++) {
+            long duration = doNoOpLookup(uri);
+            if (duration < 0) {
+                failures++;
+            } else {
+                hist.record(duration);
+            }
+        }
+        Log.v(TAG, "dummy loop: fails=" + failures + "; total=" + hist.getCount() +
+              "; goodavg ms=" + hist.getMean() / 1000000.0);
+        return true;
+    }
+
+    // Records cross-process call() times.
+    private boolean callLoop(String key, int iterations, LatencyHistogram hist) {
+        IContentProvider cp = cr.acquireProvider(SYSTEM_SETTINGS_URI.getAuthority());
+
+        try {
+            for (int i = 0; i < iterations; i++) {
+                long lastTime = System.nanoTime();
+                Bundle b = cp.call("GET_system", key, null);
+                long nowTime = System.nanoTime();
+                hist.record(nowTime - lastTime);
+            }
+        } catch (RemoteException e) {
+            return false;
+        }
+        Log.v(TAG, "call loop: avg_ms=" + hist.getMean() / 1000000.0 + "; calls=" + hist.getCount());
+        return true;
+    }
+
+    // Records times to read a /proc file.
+    private boolean procLoop(int iterations, LatencyHistogram hist) {
+        File f = new File("/proc/self/cmdline");
+        byte[] buf = new byte[100];
+        String value = null;
+        try {
+            for (int i = 0; i < iterations; i++) {
+                long lastTime = System.nanoTime();
+                FileInputStream is = new FileInputStream(f);
+                int readBytes = is.read(buf, 0, 100);
+                is.close();
+                //value = new String(buf, 0, readBytes);
+                long nowTime = System.nanoTime();
+                hist.record(nowTime - lastTime);
+                lastTime = nowTime;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        Log.v(TAG, "proc loop: total: " + hist.getCount() + "; avg_ms=" +
+              hist.getMean() / 1000000.0 + "; value=" + value);
+        return true;
+    }
+
+    private static final String[] IGNORED_COLUMN = {"ignored"};
+
+    // Returns nanoseconds.
+    private long doNoOpLookup(Uri uri) {
+        Cursor c = null;
+        try {
+            long startTime = System.nanoTime();
+            c = cr.query(uri,
+                         IGNORED_COLUMN,  //new String[]{"ignored"},  // but allocate it for apples-to-apples
+                         "name=?",
+                         IGNORED_COLUMN,  // new String[]{"also_ignored"},  // also for equality in benchmarking
+                         null /* sort order */);
+            if (c == null) {
+                Log.w(TAG, "cursor null");
+                return -1;
+            }
+            String value = c.moveToNext() ? c.getString(0) : null;
+            long duration = System.nanoTime() - startTime;
+            //Log.v(TAG, "got value: " + value + " in " + duration);
+            return duration;
+        } catch (SQLException e) {
+            Log.w(TAG, "sqlite exception: " + e);
+            return -1;
+        } finally {
+            if (c != null) c.close();
+        }
+    }
+
+    // Records cross-process service call times.
+    private boolean serviceLoop(String value, int iterations, LatencyHistogram hist) {
+        IService stub = mServiceStub;
+        if (stub == null) {
+            Log.v(TAG, "No service stub.");
+            return false;
+        }
+
+        String traceName = mTraceName;
+        try {
+            if (traceName != null) stub.startTracing(traceName + ".service");
+
+            for (int i = 0; i < iterations; i++) {
+                long lastTime = System.nanoTime();
+                if (value == null) {
+                    stub.pingVoid();
+                } else {
+                    value = stub.pingString(value);
+                }
+                hist.record(System.nanoTime() - lastTime);
+            }
+
+            if (traceName != null) stub.stopTracing();
+
+            return true;
+        } catch (RemoteException e) {
+            Log.e(TAG, "Binder call failed", e);
+            return false;
+        }
+    }
+
+    // Records how long oneway calls take to hand off; the service handles
+    // them later.
+    private boolean onewayServiceLoop(int iterations, LatencyHistogram hist) {
+        IService stub = mServiceStub;
+        if (stub == null) {
+            Log.v(TAG, "No service stub.");
+            return false;
+        }
+        try {
+            for (int i = 0; i < iterations; i++) {
+                long lastTime = System.nanoTime();
+                stub.pingVoidOneway();
+                hist.record(System.nanoTime() - lastTime);
+            }
+            return true;
+        } catch (RemoteException e) {
+            Log.e(TAG, "Binder call failed", e);
+            return false;
+        }
+    }
+
+    // Records cross-process binder ping times.
+    private boolean pingServiceLoop(String service, int iterations, LatencyHistogram hist) {
+        IBinder binder = ServiceManager.getService(service);
+        if (binder == null) {
+            Log.e(TAG, "Service missing: " + service);
+            return false;
+        }
+
+        for (int i = 0; i < iterations; i++) {
+            long lastTime = System.nanoTime();
+            if (!binder.pingBinder()) {
+                Log.e(TAG, "Error pinging service: " + service);
+                return false;
+            }
+            hist.record(System.nanoTime() - lastTime);
+        }
+
+        return true;
+    }
+
+    // Records one-byte echo round trips.
+    private boolean localSocketLoop(int iterations, LatencyHistogram hist) {
+        LocalSocket socket = null;
+        try {
+            socket = new LocalSocket();
+            Log.v(TAG, "Connecting to socket...");
+            socket.connect(new LocalSocketAddress(MiscService.SOCKET_NAME));
+            Log.v(TAG, "Connected to socket.");
+            InputStream is = socket.getInputStream();
+            OutputStream os = socket.getOutputStream();
+
+            int count = 0;
+            for (int i = 0; i < iterations; i++) {
+                long beforeTime = System.nanoTime();
+                int expectByte = count & 0xff;
+                os.write(expectByte);
+                int gotBackByte = is.read();
+
+                long afterTime = System.nanoTime();
+                hist.record(afterTime - beforeTime);
+
+                if (gotBackByte != expectByte) {
+                    Log.w(TAG, "Got wrong byte back.  Got: " + gotBackByte
+                          + "; wanted=" + expectByte);
+                    return false;
+                }
+                count++;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.v(TAG, "error in localSocketLoop: " + e);
+            return false;
+        } finally {
+            if (socket != null) {
+                try { socket.close(); } catch (IOException e) {}
+            }
+        }
+    }
+
+    // obtain: true = measure obtain(), false = measure recycle()
+    private boolean parcelLoop(boolean obtain, int iterations, LatencyHistogram hist) {
+        for (int i = 0; i < iterations; i++) {
+            if (obtain) {
+                long lastTime = System.nanoTime();
+                Parcel p = Parcel.obtain();
+                hist.record(System.nanoTime() - lastTime);
+                p.recycle();
+            } else {
+                Parcel p = Parcel.obtain();
+                long lastTime = System.nanoTime();
+                p.recycle();
+                hist.record(System.nanoTime() - lastTime);
+            }
+        }
+
+        return true;
+    }
+
+    private boolean strictModeLoop(boolean full, int iterations, LatencyHistogram hist) {
+        StrictMode.ThreadPolicy oldPolicy = StrictMode.getThreadPolicy();
+        int oldPolicyMask = StrictMode.getThreadPolicyMask();  // hidden API
+        StrictMode.ThreadPolicy policyA =
+                new StrictMode.ThreadPolicy.Builder().detectDiskReads().build();
+        StrictMode.ThreadPolicy policyB =
+                new StrictMode.ThreadPolicy.Builder().detectDiskWrites().build();
+        for (int i = 0; i < iterations; i++) {
+            StrictMode.ThreadPolicy policy = ((i & 1) == 1) ? policyA : policyB;
+            int policyMask = ((i & 1) == 1) ? 1 : 2;
+            if (full) {
+                long lastTime = System.nanoTime();
+                StrictMode.setThreadPolicy(policy);
+                hist.record(System.nanoTime() - lastTime);
+            } else {
+                long lastTime = System.nanoTime();
+                Binder.setThreadStrictModePolicy(policyMask);
+                hist.record(System.nanoTime() - lastTime);
+            }
+        }
+        if (full) {
+            StrictMode.setThreadPolicy(oldPolicy);
+        } else {
+            Binder.setThreadStrictModePolicy(oldPolicyMask);
+        }
+        return true;
+    }
+
+    private static final int MODE_READ = 0;
+    private static final int MODE_WRITE = 1;
+    private static final int MODE_WRITE_DUP = 2;
+
+    // Records settings provider round trips.
+    private boolean settingsProviderLoop(int mode, long innerSleep, int iterations,
+                                         LatencyHistogram hist) {
+        for (int i = 0; i < iterations; i++) {
+            long duration = mode == MODE_READ ? settingsRead(innerSleep) : settingsWrite(mode);
+            if (duration < 0) {
+                return false;
+            }
+            hist.record(duration);
+        }
+        Log.v(TAG, "settings provider; mode=" + mode + "; total=" + hist.getCount() +
+              "; goodavg_ms=" + hist.getMean() / 1000000.0);
+        return true;
+    }
+
+    // Returns nanoseconds taken, or -1 on failure.
+    private long settingsRead(long innerSleep) {
+        Cursor c = null;
+        try {
+            long startTime = System.nanoTime();
+            c = cr.query(SYSTEM_SETTINGS_URI,
+                         new String[]{"value"},
+                         "name=?",
+                         new String[]{"airplane_mode_on"},
+                         null /* sort order */);
+            if (c == null) {
+                Log.w(TAG, "cursor null");
+                return -1;
+            }
+            String value = c.moveToNext() ? c.getString(0) : null;
+            long duration = System.nanoTime() - startTime;
+            if (innerSleep > 0) {
+                try {
+                    Thread.sleep(innerSleep);
+                } catch (InterruptedException e) {}
+            }
+            return duration;
+        } catch (SQLException e) {
+            Log.w(TAG, "sqlite exception: " + e);
+            return -1;
+        } finally {
+            if (c != null) c.close();
+        }
+    }
+
+    // Returns nanoseconds taken, or -1 on failure.
+    private long settingsWrite(int mode) {
+        long startTime = System.nanoTime();
+        // The database will take care of replacing duplicates.
+        try {
+            ContentValues values = new ContentValues();
+            values.put("name", "dummy_for_testing");
+            values.put("value", (mode == MODE_WRITE ? (""+startTime) : "foo"));
+            Uri uri = cr.insert(SYSTEM_SETTINGS_URI, values);
+            Log.v(TAG, "inserted uri: " + uri);
+        } catch (SQLException e) {
+            Log.w(TAG, "sqliteexception during write: " + e);
+            return -1;
+        }
+        long duration = System.nanoTime() - startTime;
+        return duration;
+    }
+}
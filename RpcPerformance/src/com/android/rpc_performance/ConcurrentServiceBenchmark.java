@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Many client threads calling {@link IService} at once, to measure binder
+ * throughput rather than single-call latency.
+ *
+ * Each client thread makes {@code iterations} calls, through the counted
+ * pings so the service can report its peak concurrency.  In single mode the
+ * thread count comes from {@link BenchmarkSuite#getClientThreads}; in sweep
+ * mode the benchmark steps through 1, 2, 4 ... up to that count and reports
+ * the first thread count at which doubling the clients no longer buys at
+ * least {@link #SCALING_THRESHOLD} more calls per second, which is where
+ * MiscService's binder thread pool (16 threads by default) saturates.
+ */
+public class ConcurrentServiceBenchmark extends Benchmark {
+
+    private static final String TAG = "ConcurrentServiceBenchmark";
+
+    public static final int MAX_THREADS = 64;
+    static final double SCALING_THRESHOLD = 1.1;
+
+    private final BenchmarkSuite mSuite;
+    private final String mValue;
+    private final boolean mSweep;
+
+    // From the most recent run(), for report().
+    private int mThreads;
+    private long mElapsedNanos;
+    private int mServerPeak;
+    private LatencyHistogram[] mPerThread;
+    private int[] mSweepThreads;
+    private double[] mSweepCallsPerSec;
+    private int[] mSweepServerPeak;
+    private LatencyHistogram[] mSweepHists;
+
+    /**
+     * @param value string to send with pingStringCounted, or null to call
+     *     pingVoidCounted.
+     * @param sweep step through thread counts instead of using one.
+     */
+    public ConcurrentServiceBenchmark(String name, BenchmarkSuite suite, String value,
+                                      boolean sweep) {
+        super(name);
+        mSuite = suite;
+        mValue = value;
+        mSweep = sweep;
+    }
+
+    @Override public boolean run(int iterations, LatencyHistogram hist) {
+        IService stub = mSuite.getServiceStub();
+        if (stub == null) {
+            Log.v(TAG, "No service stub.");
+            return false;
+        }
+        int maxThreads = Math.max(1, Math.min(MAX_THREADS, mSuite.getClientThreads()));
+        if (!mSweep) {
+            return runClients(stub, maxThreads, iterations, hist);
+        }
+
+        int steps = 32 - Integer.numberOfLeadingZeros(maxThreads);
+        if (Integer.bitCount(maxThreads) != 1) steps++;  // also run maxThreads itself
+        mSweepThreads = new int[steps];
+        mSweepCallsPerSec = new double[steps];
+        mSweepServerPeak = new int[steps];
+        mSweepHists = new LatencyHistogram[steps];
+        for (int i = 0; i < steps; i++) {
+            int threads = Math.min(1 << i, maxThreads);
+            LatencyHistogram stepHist = new LatencyHistogram();
+            if (!runClients(stub, threads, iterations, stepHist)) {
+                return false;
+            }
+            hist.add(stepHist);
+            mSweepThreads[i] = threads;
+            mSweepCallsPerSec[i] = callsPerSecond(stepHist.getCount(), mElapsedNanos);
+            mSweepServerPeak[i] = mServerPeak;
+            mSweepHists[i] = stepHist;
+        }
+        return true;
+    }
+
+    private boolean runClients(final IService stub, int threads, final int iterations,
+                               LatencyHistogram merged) {
+        try {
+            stub.resetPeakConcurrentCalls();
+        } catch (RemoteException e) {
+            Log.e(TAG, "Binder call failed", e);
+            return false;
+        }
+
+        final LatencyHistogram[] perThread = new LatencyHistogram[threads];
+        final boolean[] failed = new boolean[1];
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        Thread[] clients = new Thread[threads];
+        long startTime;
+        try {
+            for (int t = 0; t < threads; t++) {
+                final LatencyHistogram h = perThread[t] = new LatencyHistogram();
+                clients[t] = new Thread("binder-client-" + t) {
+                    @Override public void run() {
+                        try {
+                            start.await();
+                            String value = mValue;
+                            for (int i = 0; i < iterations; i++) {
+                                long lastTime = System.nanoTime();
+                                if (value == null) {
+                                    stub.pingVoidCounted();
+                                } else {
+                                    value = stub.pingStringCounted(value);
+                                }
+                                h.record(System.nanoTime() - lastTime);
+                            }
+                        } catch (RemoteException e) {
+                            Log.e(TAG, "Binder call failed", e);
+                            synchronized (failed) { failed[0] = true; }
+                        } catch (InterruptedException e) {
+                            synchronized (failed) { failed[0] = true; }
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                };
+                clients[t].start();
+            }
+        } finally {
+            // Always release the clients, even if starting one failed.
+            startTime = System.nanoTime();
+            start.countDown();
+        }
+
+        try {
+            done.await();
+            mElapsedNanos = System.nanoTime() - startTime;
+            mServerPeak = stub.resetPeakConcurrentCalls();
+        } catch (RemoteException e) {
+            Log.e(TAG, "Binder call failed", e);
+            return false;
+        } catch (InterruptedException e) {
+            // Don't leave the clients running behind us.
+            for (Thread client : clients) {
+                if (client != null) client.interrupt();
+            }
+            return false;
+        }
+
+        synchronized (failed) {
+            if (failed[0]) return false;
+        }
+        for (LatencyHistogram h : perThread) {
+            merged.add(h);
+        }
+        mThreads = threads;
+        mPerThread = perThread;
+        return true;
+    }
+
+    private static double callsPerSecond(long calls, long nanos) {
+        return nanos <= 0 ? 0.0 : calls * 1e9 / nanos;
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        if (!mSweep) {
+            result.putExtra("threads", mThreads);
+            long calls = 0;
+            for (LatencyHistogram h : mPerThread) calls += h.getCount();
+            result.putExtra("calls_per_sec", callsPerSecond(calls, mElapsedNanos));
+            result.putExtra("server_peak_concurrency", mServerPeak);
+            for (int t = 0; t < mPerThread.length; t++) {
+                result.putSeries("thread" + t, mPerThread[t]);
+            }
+            return;
+        }
+
+        int saturation = mSweepThreads[mSweepThreads.length - 1];
+        for (int i = 1; i < mSweepThreads.length; i++) {
+            if (mSweepCallsPerSec[i] < mSweepCallsPerSec[i - 1] * SCALING_THRESHOLD) {
+                saturation = mSweepThreads[i - 1];
+                break;
+            }
+        }
+        for (int i = 0; i < mSweepThreads.length; i++) {
+            int threads = mSweepThreads[i];
+            result.putExtra("calls_per_sec_" + threads, mSweepCallsPerSec[i]);
+            result.putExtra("server_peak_" + threads, mSweepServerPeak[i]);
+            result.putSeries("threads=" + threads, mSweepHists[i]);
+        }
+        result.putExtra("saturation_threads", saturation);
+        Log.i(TAG, getName() + ": throughput stops scaling at " + saturation + " client threads");
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * {@link BenchmarkSuite#getClientThreads} clients, each on its own
+ * connection to the {@link EchoServer}, doing one-byte round trips at the
+ * same time.  Reports aggregate round trips per second alongside the echo
+ * server's counters.
+ */
+public class ConcurrentSocketBenchmark extends Benchmark {
+
+    private static final String TAG = "ConcurrentSocketBenchmark";
+
+    private final BenchmarkSuite mSuite;
+
+    // From the most recent run(), for report().
+    private int mThreads;
+    private long mElapsedNanos;
+    private long mCalls;
+    private Bundle mServerStats;
+
+    public ConcurrentSocketBenchmark(String name, BenchmarkSuite suite) {
+        super(name);
+        mSuite = suite;
+    }
+
+    @Override public boolean run(final int iterations, LatencyHistogram hist) {
+        int threads = mSuite.getClientThreads();
+        final LatencyHistogram[] perThread = new LatencyHistogram[threads];
+        final LocalSocket[] sockets = new LocalSocket[threads];
+        final boolean[] failed = new boolean[1];
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        try {
+            // Connect everyone up front so connection setup isn't measured.
+            for (int t = 0; t < threads; t++) {
+                sockets[t] = new LocalSocket();
+                sockets[t].connect(new LocalSocketAddress(MiscService.SOCKET_NAME));
+            }
+            for (int t = 0; t < threads; t++) {
+                final LocalSocket socket = sockets[t];
+                final LatencyHistogram h = perThread[t] = new LatencyHistogram();
+                new Thread("socket-client-" + t) {
+                    @Override public void run() {
+                        try {
+                            InputStream is = socket.getInputStream();
+                            OutputStream os = socket.getOutputStream();
+                            start.await();
+                            for (int i = 0; i < iterations; i++) {
+                                int expectByte = i & 0xff;
+                                long lastTime = System.nanoTime();
+                                os.write(expectByte);
+                                int gotBackByte = is.read();
+                                h.record(System.nanoTime() - lastTime);
+                                if (gotBackByte != expectByte) {
+                                    throw new IOException("Got wrong byte back: " + gotBackByte);
+                                }
+                            }
+                        } catch (IOException e) {
+                            Log.v(TAG, "socket client failed: " + e);
+                            synchronized (failed) { failed[0] = true; }
+                        } catch (InterruptedException e) {
+                            synchronized (failed) { failed[0] = true; }
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }.start();
+            }
+
+            long startTime = System.nanoTime();
+            start.countDown();
+            done.await();
+            mElapsedNanos = System.nanoTime() - startTime;
+        } catch (IOException e) {
+            Log.v(TAG, "error connecting: " + e);
+            return false;
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            for (LocalSocket socket : sockets) {
+                if (socket != null) {
+                    try { socket.close(); } catch (IOException e) {}
+                }
+            }
+        }
+
+        synchronized (failed) {
+            if (failed[0]) return false;
+        }
+        mCalls = 0;
+        for (LatencyHistogram h : perThread) {
+            hist.add(h);
+            mCalls += h.getCount();
+        }
+        mThreads = threads;
+
+        IService stub = mSuite.getServiceStub();
+        mServerStats = null;
+        if (stub != null) {
+            try {
+                mServerStats = stub.getEchoStats();
+            } catch (RemoteException e) {
+                Log.w(TAG, "getEchoStats failed", e);
+            }
+        }
+        return true;
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        result.putExtra("threads", mThreads);
+        result.putExtra("round_trips_per_sec",
+                        mElapsedNanos <= 0 ? 0.0 : mCalls * 1e9 / mElapsedNanos);
+        if (mServerStats != null) {
+            result.putExtra("server_accepted", mServerStats.getLong(EchoServer.STAT_ACCEPTED));
+            result.putExtra("server_rejected", mServerStats.getLong(EchoServer.STAT_REJECTED));
+            result.putExtra("server_bytes", mServerStats.getLong(EchoServer.STAT_BYTES));
+            result.putExtra("server_peak_queue_depth",
+                            mServerStats.getInt(EchoServer.STAT_PEAK_QUEUE_DEPTH));
+        }
+    }
+}
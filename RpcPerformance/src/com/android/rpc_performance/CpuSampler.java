@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.os.Debug;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * CPU time and context switches over a stretch of benchmark, for telling
+ * real work apart from time spent waiting to be scheduled.
+ *
+ * Sampled at {@link #start} and {@link #stop}, and reported per
+ * operation by {@link #report}:
+ *   - the calling thread's CPU time and its voluntary (it blocked, then
+ *     was woken) and involuntary (preempted) context switches;
+ *   - this process's CPU time and the switches of all its threads;
+ *   - the same for a remote process, normally MiscService's.
+ *
+ * Process CPU time comes from /proc/PID/stat in clock ticks, so it is only
+ * good to 10ms; per-call figures need enough calls to mean anything.
+ * Switch counts are per thread in /proc, and threads that exit before
+ * {@link #stop} take theirs with them, so client threads a benchmark
+ * starts and joins within the stretch aren't counted.
+ *
+ * The stat files and the calling thread's status are read through
+ * {@link ProcFileReader}s kept open between samples; {@link #close} them
+ * when done.
+ */
+public class CpuSampler {
+
+    private static final String TAG = "CpuSampler";
+
+    // USER_HZ is 100 on Android.
+    private static final long NANOS_PER_TICK = 10000000L;
+
+    private static final byte[] VOLUNTARY = ProcFileReader.label("voluntary_ctxt_switches:");
+    private static final byte[] INVOLUNTARY =
+            ProcFileReader.label("nonvoluntary_ctxt_switches:");
+
+    private final int mRemotePid;
+    private final ProcFileReader mSelfStat = new ProcFileReader("/proc/self/stat");
+    private final ProcFileReader mRemoteStat;
+    private ProcFileReader mThreadStatus;
+
+    private long mThreadCpuNanos;
+    private long[] mThreadSwitches;
+    private long mProcessCpuNanos;
+    private HashMap<String, long[]> mProcessSwitches;
+    private long mRemoteCpuNanos;
+    private HashMap<String, long[]> mRemoteSwitches;
+
+    /** @param remotePid process to sample alongside this one, or 0 for none. */
+    public CpuSampler(int remotePid) {
+        mRemotePid = remotePid;
+        mRemoteStat = remotePid > 0 ? new ProcFileReader("/proc/" + remotePid + "/stat") : null;
+    }
+
+    public void close() {
+        mSelfStat.close();
+        if (mRemoteStat != null) mRemoteStat.close();
+        if (mThreadStatus != null) mThreadStatus.close();
+    }
+
+    private ProcFileReader threadStatus() {
+        String path = "/proc/self/task/" + Process.myTid() + "/status";
+        if (mThreadStatus == null || !mThreadStatus.getPath().equals(path)) {
+            if (mThreadStatus != null) mThreadStatus.close();
+            mThreadStatus = new ProcFileReader(path);
+        }
+        return mThreadStatus;
+    }
+
+    public void start() {
+        mProcessSwitches = taskSwitches("/proc/self/task");
+        mProcessCpuNanos = processCpuNanos(mSelfStat);
+        if (mRemotePid > 0) {
+            mRemoteSwitches = taskSwitches("/proc/" + mRemotePid + "/task");
+            mRemoteCpuNanos = processCpuNanos(mRemoteStat);
+        }
+        mThreadSwitches = switches(threadStatus());
+        mThreadCpuNanos = Debug.threadCpuTimeNanos();
+    }
+
+    // Indexes into the arrays from stop().
+    static final int THREAD_CPU = 0;
+    static final int THREAD_WAKEUPS = 1;
+    static final int THREAD_PREEMPTIONS = 2;
+    static final int PROCESS_CPU = 3;
+    static final int PROCESS_WAKEUPS = 4;
+    static final int PROCESS_PREEMPTIONS = 5;
+    static final int REMOTE_CPU = 6;
+    static final int REMOTE_WAKEUPS = 7;
+    static final int REMOTE_PREEMPTIONS = 8;
+    static final int SAMPLE_SIZE = 9;
+
+    /** Returns what was used since {@link #start}, indexed as above. */
+    public long[] stop() {
+        long[] used = new long[SAMPLE_SIZE];
+        used[THREAD_CPU] = Debug.threadCpuTimeNanos() - mThreadCpuNanos;
+        long[] threadSwitches = switches(threadStatus());
+        used[THREAD_WAKEUPS] = threadSwitches[0] - mThreadSwitches[0];
+        used[THREAD_PREEMPTIONS] = threadSwitches[1] - mThreadSwitches[1];
+        used[PROCESS_CPU] = processCpuNanos(mSelfStat) - mProcessCpuNanos;
+        long[] processSwitches = delta(mProcessSwitches, taskSwitches("/proc/self/task"));
+        used[PROCESS_WAKEUPS] = processSwitches[0];
+        used[PROCESS_PREEMPTIONS] = processSwitches[1];
+        if (mRemotePid > 0) {
+            used[REMOTE_CPU] = processCpuNanos(mRemoteStat) - mRemoteCpuNanos;
+            long[] remoteSwitches =
+                    delta(mRemoteSwitches, taskSwitches("/proc/" + mRemotePid + "/task"));
+            used[REMOTE_WAKEUPS] = remoteSwitches[0];
+            used[REMOTE_PREEMPTIONS] = remoteSwitches[1];
+        }
+        return used;
+    }
+
+    /** Adds per-operation extras for {@code used}, summed over {@code ops} operations. */
+    public void report(BenchmarkResult result, long[] used, double ops) {
+        if (ops <= 0) return;
+        result.putExtra("cpu_us_per_op", used[THREAD_CPU] / ops / 1000.0);
+        result.putExtra("wakeups_per_op", used[THREAD_WAKEUPS] / ops);
+        result.putExtra("preemptions_per_op", used[THREAD_PREEMPTIONS] / ops);
+        result.putExtra("process_cpu_us_per_op", used[PROCESS_CPU] / ops / 1000.0);
+        result.putExtra("process_wakeups_per_op", used[PROCESS_WAKEUPS] / ops);
+        result.putExtra("process_preemptions_per_op", used[PROCESS_PREEMPTIONS] / ops);
+        if (mRemotePid > 0) {
+            result.putExtra("service_cpu_us_per_op", used[REMOTE_CPU] / ops / 1000.0);
+            result.putExtra("service_wakeups_per_op", used[REMOTE_WAKEUPS] / ops);
+            result.putExtra("service_preemptions_per_op", used[REMOTE_PREEMPTIONS] / ops);
+        }
+    }
+
+    // Sums the growth in switches of each thread alive at the end.  Threads
+    // created during the window count in full; threads that exited during
+    // it are dropped, along with their switches.
+    private static long[] delta(HashMap<String, long[]> before, HashMap<String, long[]> after) {
+        long[] total = new long[2];
+        for (String tid : after.keySet()) {
+            long[] a = after.get(tid);
+            long[] b = before.get(tid);
+            total[0] += a[0] - (b == null ? 0 : b[0]);
+            total[1] += a[1] - (b == null ? 0 : b[1]);
+        }
+        return total;
+    }
+
+    private static HashMap<String, long[]> taskSwitches(String taskDir) {
+        HashMap<String, long[]> tasks = new HashMap<String, long[]>();
+        String[] tids = new File(taskDir).list();
+        if (tids == null) return tasks;
+        for (String tid : tids) {
+            ProcFileReader status = new ProcFileReader(taskDir + "/" + tid + "/status");
+            tasks.put(tid, switches(status));
+            status.close();
+        }
+        return tasks;
+    }
+
+    // {voluntary, involuntary} from a status file; zeros if unreadable.
+    private static long[] switches(ProcFileReader status) {
+        long[] counts = new long[2];
+        try {
+            status.read();
+            counts[0] = Math.max(0, status.getLabeled(VOLUNTARY));
+            counts[1] = Math.max(0, status.getLabeled(INVOLUNTARY));
+        } catch (IOException e) {
+            // The thread exited.
+        }
+        return counts;
+    }
+
+    // utime + stime from /proc/PID/stat, in nanoseconds; 0 if unreadable.
+    private static long processCpuNanos(ProcFileReader stat) {
+        try {
+            stat.read();
+        } catch (IOException e) {
+            Log.w(TAG, "Reading " + stat.getPath() + ": " + e);
+            return 0;
+        }
+        // The command name can hold spaces, so count fields from its
+        // closing paren: utime and stime are 11 and 12 from there.
+        int offset = stat.afterLast((byte) ')');
+        long utime = stat.getField(offset, 11);
+        long stime = stat.getField(offset, 12);
+        return utime < 0 || stime < 0 ? 0 : (utime + stime) * NANOS_PER_TICK;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.content.ContentResolver;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Queries {@link Provider}'s synthetic result set and walks it end to end,
+ * reading every column of every row, like a list of contacts or call log
+ * entries being loaded.  Each sample is one whole query-and-walk; the shape
+ * comes from {@link BenchmarkSuite#getCursorRows}, getCursorColumns and
+ * getCellBytes.
+ *
+ * Across processes the rows arrive in CursorWindows; each time the client
+ * cursor moves to a different window, or the same window refilled at a new
+ * start position, counts as a refill.  In process the provider's cursor is
+ * used directly and there are no windows.  Peak heap is the most Java heap
+ * in use seen at any refill or at the end of a walk.  Result sets over 100
+ * rows run iterations * 100 / rows walks (at least one).
+ */
+public class CursorWalkBenchmark extends Benchmark {
+
+    private static final String TAG = "CursorWalkBenchmark";
+
+    private final BenchmarkSuite mSuite;
+    private final Uri mProviderUri;
+
+    // From the most recent run(), for report().
+    private int mRows;
+    private int mColumns;
+    private int mCellBytes;
+    private LatencyHistogram mWalks;
+    private int mRefills;
+    private long mBytes;
+    private long mPeakHeap;
+
+    public CursorWalkBenchmark(String name, BenchmarkSuite suite, Uri providerUri) {
+        super(name);
+        mSuite = suite;
+        mProviderUri = providerUri;
+    }
+
+    @Override public boolean run(int iterations, LatencyHistogram hist) {
+        mRows = mSuite.getCursorRows();
+        mColumns = mSuite.getCursorColumns();
+        mCellBytes = mSuite.getCellBytes();
+        mWalks = new LatencyHistogram();
+        mPeakHeap = 0;
+
+        ContentResolver cr = mSuite.getContext().getContentResolver();
+        Uri uri = mProviderUri.buildUpon()
+                .appendPath(Provider.PATH_SYNTHETIC)
+                .appendQueryParameter(Provider.PARAM_ROWS, Integer.toString(mRows))
+                .appendQueryParameter(Provider.PARAM_COLUMNS, Integer.toString(mColumns))
+                .appendQueryParameter(Provider.PARAM_CELL_BYTES, Integer.toString(mCellBytes))
+                .build();
+        int walks = mRows <= 100 ? iterations : Math.max(1, iterations * 100 / mRows);
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < walks; i++) {
+            Cursor c = null;
+            int rows = 0;
+            int refills = 0;
+            long bytes = 0;
+            try {
+                long lastTime = System.nanoTime();
+                c = cr.query(uri, null, null, null, null);
+                if (c == null) {
+                    Log.w(TAG, "null cursor from " + uri);
+                    return false;
+                }
+                AbstractWindowedCursor windowed = windowedCursor(c);
+                CursorWindow lastWindow = null;
+                int lastStart = -1;
+                int columns = c.getColumnCount();
+                while (c.moveToNext()) {
+                    if (windowed != null) {
+                        CursorWindow window = windowed.getWindow();
+                        if (window != lastWindow || window.getStartPosition() != lastStart) {
+                            refills++;
+                            lastWindow = window;
+                            lastStart = window.getStartPosition();
+                            mPeakHeap = Math.max(mPeakHeap,
+                                                 runtime.totalMemory() - runtime.freeMemory());
+                        }
+                    }
+                    bytes += 8;  // _id
+                    c.getLong(0);
+                    for (int col = 1; col < columns; col++) {
+                        String value = c.getString(col);
+                        // SyntheticCursor cells are ASCII, so chars == bytes.
+                        if (value != null) bytes += value.length();
+                    }
+                    rows++;
+                }
+                mWalks.record(System.nanoTime() - lastTime);
+            } catch (RuntimeException e) {
+                Log.w(TAG, getName() + " failed: " + e);
+                return false;
+            } finally {
+                if (c != null) c.close();
+            }
+            mPeakHeap = Math.max(mPeakHeap, runtime.totalMemory() - runtime.freeMemory());
+            if (rows != mRows) {
+                Log.w(TAG, "Got " + rows + " rows; wanted " + mRows);
+                return false;
+            }
+            mRefills = refills;
+            mBytes = bytes;
+        }
+        hist.add(mWalks);
+        return true;
+    }
+
+    // The windowed cursor under ContentResolver's wrapper, or null in
+    // process, where the provider's own cursor comes back.
+    private static AbstractWindowedCursor windowedCursor(Cursor c) {
+        while (c instanceof CursorWrapper) {
+            c = ((CursorWrapper) c).getWrappedCursor();
+        }
+        return c instanceof AbstractWindowedCursor ? (AbstractWindowedCursor) c : null;
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        long median = mWalks.getPercentile(50);
+        result.putExtra("rows", mRows);
+        result.putExtra("columns", mColumns);
+        result.putExtra("cell_bytes", mCellBytes);
+        result.putExtra("rows_per_sec", median <= 0 ? 0.0 : mRows * 1e9 / median);
+        result.putExtra("window_refills", mRefills);
+        result.putExtra("rows_per_window", mRefills == 0 ? mRows : (double) mRows / mRefills);
+        result.putExtra("bytes_per_walk", mBytes);
+        result.putExtra("mb_per_sec",
+                        median <= 0 ? 0.0 : mBytes / (median / 1e9) / (1024.0 * 1024.0));
+        result.putExtra("peak_heap_bytes", mPeakHeap);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Times saving a {@link #RECORD_BYTES} record the way app code does, from
+ * open to close, with increasing guarantees that it reached storage:
+ *
+ *   MODE_NO_SYNC         write and close; only reaches the page cache
+ *   MODE_FD_SYNC         FileDescriptor.sync() before close (fsync)
+ *   MODE_FORCE           FileChannel.force(false) before close (fdatasync)
+ *   MODE_RENAME          write a temp file, fsync it, rename over the
+ *                        original (the directory itself can't be synced
+ *                        from Java)
+ *   MODE_SQLITE_JOURNAL  one autocommit INSERT OR REPLACE, rollback journal
+ *   MODE_SQLITE_WAL      the same with write-ahead logging
+ *
+ * SQLite runs with synchronous=FULL in both journal modes, so each commit
+ * is durable.  Durable writes matter for their stalls rather than their
+ * average, so besides the usual percentiles the result has
+ * writes_over_16ms, the count of writes across the kept trials that would
+ * have cost a frame.  MODE_SQLITE_WAL fails if WAL can't be enabled.
+ */
+public class DurableWriteBenchmark extends Benchmark {
+
+    private static final String TAG = "DurableWriteBenchmark";
+
+    public static final int MODE_NO_SYNC = 0;
+    public static final int MODE_FD_SYNC = 1;
+    public static final int MODE_FORCE = 2;
+    public static final int MODE_RENAME = 3;
+    public static final int MODE_SQLITE_JOURNAL = 4;
+    public static final int MODE_SQLITE_WAL = 5;
+
+    public static final int RECORD_BYTES = 4096;
+
+    private static final long FRAME_NANOS = 16000000L;
+    // Rows overwritten in turn, so the database stays small.
+    private static final int SQLITE_KEYS = 100;
+
+    private final BenchmarkSuite mSuite;
+    private final int mMode;
+
+    public DurableWriteBenchmark(String name, BenchmarkSuite suite, int mode) {
+        super(name);
+        mSuite = suite;
+        mMode = mode;
+    }
+
+    @Override public boolean run(int iterations, LatencyHistogram hist) {
+        byte[] record = new byte[RECORD_BYTES];
+        try {
+            if (mMode == MODE_SQLITE_JOURNAL || mMode == MODE_SQLITE_WAL) {
+                return sqliteLoop(record, iterations, hist);
+            } else {
+                return fileLoop(record, iterations, hist);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, getName() + " failed", e);
+            return false;
+        } catch (SQLiteException e) {
+            Log.e(TAG, getName() + " failed", e);
+            return false;
+        }
+    }
+
+    private boolean fileLoop(byte[] record, int iterations, LatencyHistogram hist)
+            throws IOException {
+        Context context = mSuite.getContext();
+        File file = context.getFileStreamPath("durable.dat");
+        File temp = context.getFileStreamPath("durable.dat.tmp");
+        try {
+            for (int i = 0; i < iterations; i++) {
+                record[0] = (byte) i;
+                long lastTime = System.nanoTime();
+                FileOutputStream out = new FileOutputStream(mMode == MODE_RENAME ? temp : file);
+                try {
+                    out.write(record);
+                    switch (mMode) {
+                        case MODE_FD_SYNC:
+                        case MODE_RENAME:
+                            out.getFD().sync();
+                            break;
+                        case MODE_FORCE:
+                            out.getChannel().force(false);
+                            break;
+                    }
+                } finally {
+                    out.close();
+                }
+                if (mMode == MODE_RENAME && !temp.renameTo(file)) {
+                    Log.e(TAG, "rename to " + file + " failed");
+                    return false;
+                }
+                hist.record(System.nanoTime() - lastTime);
+            }
+            return true;
+        } finally {
+            file.delete();
+            temp.delete();
+        }
+    }
+
+    private boolean sqliteLoop(byte[] record, int iterations, LatencyHistogram hist) {
+        Context context = mSuite.getContext();
+        String name = mMode == MODE_SQLITE_WAL ? "durable_wal.db" : "durable_journal.db";
+        SQLiteDatabase db = context.openOrCreateDatabase(name, Context.MODE_PRIVATE, null);
+        try {
+            if (mMode == MODE_SQLITE_WAL) {
+                // Refused for in-memory and read-only databases, and where the
+                // platform doesn't support it; that would time the journal.
+                if (!db.enableWriteAheadLogging()) {
+                    Log.e(TAG, getName() + ": could not enable write-ahead logging");
+                    return false;
+                }
+            } else {
+                // journal_mode returns a row, so it can't go through execSQL.
+                Cursor c = db.rawQuery("PRAGMA journal_mode=DELETE", null);
+                c.moveToFirst();
+                c.close();
+            }
+            db.execSQL("PRAGMA synchronous=FULL");
+            db.execSQL("CREATE TABLE IF NOT EXISTS foo (a INTEGER PRIMARY KEY, b BLOB)");
+
+            Object[] args = new Object[2];
+            args[1] = record;
+            for (int i = 0; i < iterations; i++) {
+                args[0] = i % SQLITE_KEYS;
+                record[0] = (byte) i;
+                long lastTime = System.nanoTime();
+                db.execSQL("INSERT OR REPLACE INTO foo (a, b) VALUES (?, ?)", args);
+                hist.record(System.nanoTime() - lastTime);
+            }
+            return true;
+        } finally {
+            db.close();
+            context.deleteDatabase(name);
+        }
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        result.putExtra("record_bytes", RECORD_BYTES);
+        result.putExtra("writes_over_16ms", result.histogram.getCountAbove(FRAME_NANOS));
+    }
+}
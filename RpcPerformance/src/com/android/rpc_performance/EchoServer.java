@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LocalSocket echo server for the socket benchmarks.
+ *
+ * Accepted connections are handed to a bounded pool of reusable worker
+ * threads; connections beyond the pool wait in a bounded queue, and are
+ * closed if that is full too.  Workers echo whatever is available in bulk
+ * through one buffer, so clients may pipeline as many requests as they
+ * like.  LocalSocket has no selectable channel, so a selector-style event
+ * loop isn't available; the pool at least keeps thread creation out of the
+ * measured path.
+ */
+public class EchoServer {
+
+    private static final String TAG = "EchoServer";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Keys for getStats().
+    public static final String STAT_ACCEPTED = "accepted";
+    public static final String STAT_ACTIVE = "active";
+    public static final String STAT_REJECTED = "rejected";
+    public static final String STAT_BYTES = "bytes";
+    public static final String STAT_QUEUE_DEPTH = "queue_depth";
+    public static final String STAT_PEAK_QUEUE_DEPTH = "peak_queue_depth";
+
+    private final String mName;
+    private final ThreadPoolExecutor mWorkers;
+    private LocalServerSocket mServerSocket;
+    private volatile boolean mStopped;
+
+    private final AtomicLong mAccepted = new AtomicLong();
+    private final AtomicInteger mActive = new AtomicInteger();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicInteger mPeakQueueDepth = new AtomicInteger();
+
+    /**
+     * @param workers maximum connections served at once.
+     * @param backlog maximum connections waiting for a worker.
+     */
+    public EchoServer(String name, int workers, int backlog) {
+        mName = name;
+        mWorkers = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(backlog));
+    }
+
+    public void start() throws IOException {
+        mServerSocket = new LocalServerSocket(mName);
+        Thread t = new Thread("echo-accept") {
+                @Override public void run() {
+                    acceptLoop();
+                }
+            };
+        t.start();
+    }
+
+    public void stop() {
+        mStopped = true;
+        mWorkers.shutdownNow();
+        try {
+            if (mServerSocket != null) mServerSocket.close();
+        } catch (IOException e) {
+            Log.v(TAG, "closing server socket: " + e);
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mStopped) {
+            final LocalSocket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                Log.v(TAG, "in accept: " + e);
+                continue;
+            }
+            if (socket == null) {
+                return;  // socket shutdown?
+            }
+            mAccepted.incrementAndGet();
+            try {
+                mWorkers.execute(new Runnable() {
+                        public void run() {
+                            echo(socket);
+                        }
+                    });
+            } catch (RejectedExecutionException e) {
+                mRejected.incrementAndGet();
+                Log.w(TAG, "Echo server full; dropping connection");
+                closeQuietly(socket);
+                continue;
+            }
+            int depth = mWorkers.getQueue().size();
+            int peak;
+            while (depth > (peak = mPeakQueueDepth.get())) {
+                if (mPeakQueueDepth.compareAndSet(peak, depth)) break;
+            }
+        }
+    }
+
+    private void echo(LocalSocket socket) {
+        mActive.incrementAndGet();
+        try {
+            InputStream is = socket.getInputStream();
+            OutputStream os = socket.getOutputStream();
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (true) {
+                int n = is.read(buf);
+                if (n < 0) {
+                    return;  // EOF.
+                }
+                os.write(buf, 0, n);
+                mBytes.addAndGet(n);
+            }
+        } catch (IOException e) {
+            Log.v(TAG, "in echo loop: " + e);
+        } finally {
+            mActive.decrementAndGet();
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(LocalSocket socket) {
+        try { socket.close(); } catch (IOException e) {}
+    }
+
+    public Bundle getStats() {
+        Bundle b = new Bundle();
+        b.putLong(STAT_ACCEPTED, mAccepted.get());
+        b.putInt(STAT_ACTIVE, mActive.get());
+        b.putLong(STAT_REJECTED, mRejected.get());
+        b.putLong(STAT_BYTES, mBytes.get());
+        b.putInt(STAT_QUEUE_DEPTH, mWorkers.getQueue().size());
+        b.putInt(STAT_PEAK_QUEUE_DEPTH, mPeakQueueDepth.get());
+        return b;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Reads or writes blocks of 512 bytes up to 4MB (powers of two) in a file
+ * of {@link BenchmarkSuite#getIoFileBytes} through one Java I/O API:
+ *
+ *   API_RAF      RandomAccessFile seek + read/write of a byte[]
+ *   API_CHANNEL  FileChannel positional read/write of a direct ByteBuffer
+ *   API_MMAP     get/put on a MappedByteBuffer of the whole file
+ *   API_STREAM   BufferedInputStream/BufferedOutputStream, 8KB buffers
+ *
+ * Each block size runs sequentially through the file, then at random
+ * block-aligned offsets; streams can't seek, so they only run
+ * sequentially.  Each sample is one block.  With sync on, every write is
+ * followed by fsync (FileDescriptor.sync, FileChannel.force(true) or
+ * MappedByteBuffer.force).
+ *
+ * With {@link BenchmarkSuite#getColdCache} the page cache is dropped
+ * before each size and pattern, which needs a writable
+ * /proc/sys/vm/drop_caches (i.e. root); the cold_cache extra says whether
+ * it worked; dirty pages are synced first so they can be dropped too.
+ * Blocks over 4KB run iterations * 4KB / size times (at least one).
+ *
+ * The main histogram holds only sequential 4KB blocks, so trials settle
+ * and compare on one consistent operation.  Reported per size and pattern,
+ * for the final trial: a latency series, MB/s and IOPS over the time spent
+ * in the operations.
+ */
+public class FileIoBenchmark extends Benchmark {
+
+    private static final String TAG = "FileIoBenchmark";
+
+    public static final int API_RAF = 0;
+    public static final int API_CHANNEL = 1;
+    public static final int API_MMAP = 2;
+    public static final int API_STREAM = 3;
+
+    private static final int MIN_BLOCK = 512;
+    private static final int MAX_BLOCK = 4 * 1024 * 1024;
+    private static final int SCALE_BLOCK = 4096;
+    private static final int STREAM_BUFFER = 8192;
+    private static final String DROP_CACHES = "/proc/sys/vm/drop_caches";
+
+    private static final String[] PATTERNS = {"seq", "rand"};
+    // The block size and pattern recorded in the main histogram.
+    private static final int MAIN_BLOCK = SCALE_BLOCK;
+    private static final int MAIN_PATTERN = 0;
+
+    private final BenchmarkSuite mSuite;
+    private final int mApi;
+    private final boolean mWrite;
+    private final boolean mSync;
+
+    // From the most recent run(), for report().
+    private String[] mLabels;
+    private int[] mBlocks;
+    private LatencyHistogram[] mHists;
+    private boolean mColdCache;
+
+    public FileIoBenchmark(String name, BenchmarkSuite suite, int api, boolean write,
+                           boolean sync) {
+        super(name);
+        mSuite = suite;
+        mApi = api;
+        mWrite = write;
+        mSync = sync;
+    }
+
+    @Override public boolean run(int iterations, LatencyHistogram hist) {
+        int fileBytes = Math.max(MAX_BLOCK, mSuite.getIoFileBytes());
+        int steps = Integer.numberOfLeadingZeros(MIN_BLOCK)
+                - Integer.numberOfLeadingZeros(MAX_BLOCK) + 1;
+        int patterns = mApi == API_STREAM ? 1 : PATTERNS.length;
+        mLabels = new String[steps * patterns];
+        mBlocks = new int[steps * patterns];
+        mHists = new LatencyHistogram[steps * patterns];
+        mColdCache = mSuite.getColdCache();
+
+        File file = mSuite.getContext().getFileStreamPath("io_test.dat");
+        try {
+            fill(file, fileBytes);
+            int n = 0;
+            for (int pattern = 0; pattern < patterns; pattern++) {
+                for (int i = 0; i < steps; i++) {
+                    int block = MIN_BLOCK << i;
+                    int ops = block <= SCALE_BLOCK
+                            ? iterations : Math.max(1, iterations * SCALE_BLOCK / block);
+                    long[] offsets = offsets(pattern == 1, block, fileBytes, ops);
+                    if (mColdCache) mColdCache = dropCaches();
+                    LatencyHistogram blockHist = new LatencyHistogram();
+                    switch (mApi) {
+                        case API_RAF:
+                            rafLoop(file, block, offsets, blockHist);
+                            break;
+                        case API_CHANNEL:
+                            channelLoop(file, block, offsets, blockHist);
+                            break;
+                        case API_MMAP:
+                            mmapLoop(file, fileBytes, block, offsets, blockHist);
+                            break;
+                        default:
+                            streamLoop(file, fileBytes, block, ops, blockHist);
+                            break;
+                    }
+                    mLabels[n] = PATTERNS[pattern];
+                    mBlocks[n] = block;
+                    mHists[n] = blockHist;
+                    if (block == MAIN_BLOCK && pattern == MAIN_PATTERN) hist.add(blockHist);
+                    n++;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, getName() + " failed", e);
+            return false;
+        } finally {
+            file.delete();
+        }
+    }
+
+    // Block-aligned offsets, either walking the file or at random.
+    private static long[] offsets(boolean random, int block, int fileBytes, int ops) {
+        int blocks = fileBytes / block;
+        Random rng = new Random(block);
+        long[] offsets = new long[ops];
+        for (int i = 0; i < ops; i++) {
+            offsets[i] = (long) (random ? rng.nextInt(blocks) : i % blocks) * block;
+        }
+        return offsets;
+    }
+
+    private static void fill(File file, int fileBytes) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        for (int i = 0; i < buf.length; i++) buf[i] = (byte) i;
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (int done = 0; done < fileBytes; done += buf.length) {
+                out.write(buf, 0, Math.min(buf.length, fileBytes - done));
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static boolean dropCaches() {
+        FileOutputStream out = null;
+        try {
+            // drop_caches only drops clean pages, so write back dirty ones
+            // first; there's no sync(2) in the Java APIs.
+            Runtime.getRuntime().exec("sync").waitFor();
+            out = new FileOutputStream(DROP_CACHES);
+            out.write("3\n".getBytes());
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Can't drop caches; running warm: " + e);
+            return false;
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted syncing before drop_caches; running warm");
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (out != null) {
+                try { out.close(); } catch (IOException e) {}
+            }
+        }
+    }
+
+    private void rafLoop(File file, int block, long[] offsets, LatencyHistogram hist)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mWrite ? "rw" : "r");
+        byte[] buf = new byte[block];
+        try {
+            for (long offset : offsets) {
+                long lastTime = System.nanoTime();
+                raf.seek(offset);
+                if (mWrite) {
+                    raf.write(buf);
+                    if (mSync) raf.getFD().sync();
+                } else {
+                    raf.readFully(buf);
+                }
+                hist.record(System.nanoTime() - lastTime);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void channelLoop(File file, int block, long[] offsets, LatencyHistogram hist)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mWrite ? "rw" : "r");
+        FileChannel channel = raf.getChannel();
+        ByteBuffer buf = ByteBuffer.allocateDirect(block);
+        try {
+            for (long offset : offsets) {
+                buf.clear();
+                long lastTime = System.nanoTime();
+                long position = offset;
+                while (buf.hasRemaining()) {
+                    int n = mWrite ? channel.write(buf, position) : channel.read(buf, position);
+                    if (n < 0) throw new IOException("EOF at " + position);
+                    position += n;
+                }
+                if (mWrite && mSync) channel.force(true);
+                hist.record(System.nanoTime() - lastTime);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void mmapLoop(File file, int fileBytes, int block, long[] offsets,
+                          LatencyHistogram hist) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mWrite ? "rw" : "r");
+        try {
+            MappedByteBuffer map = raf.getChannel().map(
+                    mWrite ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                    0, fileBytes);
+            byte[] buf = new byte[block];
+            for (long offset : offsets) {
+                long lastTime = System.nanoTime();
+                map.position((int) offset);
+                if (mWrite) {
+                    map.put(buf);
+                    if (mSync) map.force();
+                } else {
+                    map.get(buf);
+                }
+                hist.record(System.nanoTime() - lastTime);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void streamLoop(File file, int fileBytes, int block, int ops, LatencyHistogram hist)
+            throws IOException {
+        byte[] buf = new byte[block];
+        int blocks = fileBytes / block;
+        if (mWrite) {
+            FileOutputStream fos = null;
+            BufferedOutputStream out = null;
+            try {
+                for (int i = 0; i < ops; i++) {
+                    if (i % blocks == 0) {
+                        if (out != null) out.close();
+                        fos = new FileOutputStream(file);
+                        out = new BufferedOutputStream(fos, STREAM_BUFFER);
+                    }
+                    long lastTime = System.nanoTime();
+                    out.write(buf);
+                    if (mSync) {
+                        out.flush();
+                        fos.getFD().sync();
+                    }
+                    hist.record(System.nanoTime() - lastTime);
+                }
+            } finally {
+                if (out != null) out.close();
+            }
+        } else {
+            BufferedInputStream in = null;
+            try {
+                for (int i = 0; i < ops; i++) {
+                    if (i % blocks == 0) {
+                        if (in != null) in.close();
+                        in = new BufferedInputStream(new FileInputStream(file), STREAM_BUFFER);
+                    }
+                    long lastTime = System.nanoTime();
+                    int got = 0;
+                    while (got < block) {
+                        int n = in.read(buf, got, block - got);
+                        if (n < 0) throw new IOException("Unexpected EOF");
+                        got += n;
+                    }
+                    hist.record(System.nanoTime() - lastTime);
+                }
+            } finally {
+                if (in != null) in.close();
+            }
+        }
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        result.putExtra("cold_cache", mColdCache ? 1 : 0);
+        result.putExtra("main_block_bytes", MAIN_BLOCK);
+        for (int i = 0; i < mHists.length; i++) {
+            if (mHists[i] == null) break;
+            String key = mLabels[i] + "_" + mBlocks[i];
+            LatencyHistogram h = mHists[i];
+            double seconds = h.getSum() / 1e9;
+            result.putSeries(mLabels[i] + "/bytes=" + mBlocks[i], h);
+            result.putExtra("mb_per_sec_" + key, seconds <= 0 ? 0.0
+                            : (double) h.getCount() * mBlocks[i] / seconds / (1024.0 * 1024.0));
+            result.putExtra("iops_" + key, seconds <= 0 ? 0.0 : h.getCount() / seconds);
+        }
+    }
+}
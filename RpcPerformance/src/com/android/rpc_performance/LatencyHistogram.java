@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Fixed-bucket log-linear histogram of nanosecond latencies.
+ *
+ * Values below {@link #SUB_BUCKET_COUNT} get a bucket each; above that, every
+ * power of two is split into {@link #SUB_BUCKET_COUNT}/2 linear sub-buckets, so
+ * the relative error of any reported value is under 1/32 (~3%) across the whole
+ * long range.  All state lives in primitive arrays allocated up front:
+ * {@link #record} never allocates, so it is safe to call inside a timed loop.
+ *
+ * Not thread-safe; give each recording thread its own instance and
+ * {@link #add} them together afterwards.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_BITS = SUB_BUCKET_BITS - 1;
+    private static final int SUB_BUCKET_HALF = 1 << SUB_BUCKET_HALF_BITS;
+
+    // Highest set bit of a positive long is 62, which gives the largest shift.
+    private static final int MAX_SHIFT = 62 - SUB_BUCKET_HALF_BITS;
+    static final int BUCKET_COUNT = (MAX_SHIFT + 1) * SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+    private long mSum;
+    private double mSumSquares;
+
+    /** Records one sample.  Negative durations are clamped to zero. */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        mCounts[bucketIndex(nanos)]++;
+        mCount++;
+        mSum += nanos;
+        mSumSquares += (double) nanos * (double) nanos;
+        if (nanos < mMin) mMin = nanos;
+        if (nanos > mMax) mMax = nanos;
+    }
+
+    /** Merges all samples from {@code other} into this histogram. */
+    public void add(LatencyHistogram other) {
+        if (other.mCount == 0) return;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mCount += other.mCount;
+        mSum += other.mSum;
+        mSumSquares += other.mSumSquares;
+        if (other.mMin < mMin) mMin = other.mMin;
+        if (other.mMax > mMax) mMax = other.mMax;
+    }
+
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+        mSum = 0;
+        mSumSquares = 0;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMin() {
+        return mCount == 0 ? 0 : mMin;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public long getSum() {
+        return mSum;
+    }
+
+    public double getMean() {
+        return mCount == 0 ? 0.0 : (double) mSum / (double) mCount;
+    }
+
+    public double getStdDev() {
+        if (mCount < 2) return 0.0;
+        double mean = getMean();
+        double variance = (mSumSquares - mean * mean * mCount) / (mCount - 1);
+        return variance > 0.0 ? Math.sqrt(variance) : 0.0;
+    }
+
+    /**
+     * Returns the value at the given percentile (0..100), as the upper bound of
+     * the bucket holding that rank, clamped to the observed min and max.
+     */
+    public long getPercentile(double percentile) {
+        if (mCount == 0) return 0;
+        long rank = (long) Math.ceil(percentile / 100.0 * mCount);
+        if (rank < 1) rank = 1;
+        if (rank > mCount) rank = mCount;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.max(mMin, Math.min(mMax, bucketUpperBound(i)));
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * Number of samples known to be greater than {@code value}, i.e. in
+     * buckets whose lower bound is above it.
+     */
+    public long getCountAbove(long value) {
+        if (mCount == 0 || value >= mMax) return 0;
+        long above = 0;
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            if (bucketLowerBound(i) <= value) break;
+            above += mCounts[i];
+        }
+        return above;
+    }
+
+    /** Number of samples in bucket {@code index}, for {@link RegressionCheck}. */
+    long getBucketCount(int index) {
+        return mCounts[index];
+    }
+
+    private static final int SERIAL_VERSION = 1;
+
+    /**
+     * Compact encoding of the whole histogram, non-empty buckets only, for
+     * {@link ResultStore}.
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(SERIAL_VERSION);
+            out.writeLong(mCount);
+            out.writeLong(mMin);
+            out.writeLong(mMax);
+            out.writeLong(mSum);
+            out.writeDouble(mSumSquares);
+            int used = 0;
+            for (long c : mCounts) {
+                if (c != 0) used++;
+            }
+            out.writeInt(used);
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (mCounts[i] != 0) {
+                    out.writeShort(i);
+                    out.writeLong(mCounts[i]);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Can't happen writing to memory.
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Decodes {@link #toByteArray} output. */
+    public static LatencyHistogram fromByteArray(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = in.readInt();
+        if (version != SERIAL_VERSION) {
+            throw new IOException("Unknown histogram version " + version);
+        }
+        LatencyHistogram h = new LatencyHistogram();
+        h.mCount = in.readLong();
+        h.mMin = in.readLong();
+        h.mMax = in.readLong();
+        h.mSum = in.readLong();
+        h.mSumSquares = in.readDouble();
+        int used = in.readInt();
+        for (int i = 0; i < used; i++) {
+            int index = in.readShort();
+            if (index < 0 || index >= BUCKET_COUNT) {
+                throw new IOException("Bad bucket index " + index);
+            }
+            h.mCounts[index] = in.readLong();
+        }
+        return h;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_HALF_BITS;
+        return (shift << SUB_BUCKET_HALF_BITS) + (int) (value >>> shift);
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_HALF_BITS) - 1;
+        long sub = index - (shift << SUB_BUCKET_HALF_BITS);
+        return sub << shift;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_HALF_BITS) - 1;
+        long sub = index - (shift << SUB_BUCKET_HALF_BITS);
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private static String millis(double nanos) {
+        return String.format(Locale.US, "%.4f", nanos / 1000000.0);
+    }
+
+    /** Multi-line summary in milliseconds, for the result TextViews. */
+    public String toSummaryString() {
+        if (mCount == 0) return "no samples";
+        return "p50 " + millis(getPercentile(50)) + " / p90 " + millis(getPercentile(90)) + " ms\n"
+            + "p99 " + millis(getPercentile(99)) + " / p99.9 " + millis(getPercentile(99.9)) + " ms\n"
+            + "max " + millis(mMax) + " ms; avg " + millis(getMean())
+            + " sd " + millis(getStdDev()) + "; n=" + mCount;
+    }
+
+    public static final String CSV_HEADER =
+            "count,mean_ms,stddev_ms,min_ms,p50_ms,p90_ms,p99_ms,p99_9_ms,max_ms";
+
+    /** One CSV row matching {@link #CSV_HEADER}. */
+    public String toCsv() {
+        return mCount + "," + millis(getMean()) + "," + millis(getStdDev()) + ","
+            + millis(getMin()) + "," + millis(getPercentile(50)) + ","
+            + millis(getPercentile(90)) + "," + millis(getPercentile(99)) + ","
+            + millis(getPercentile(99.9)) + "," + millis(mMax);
+    }
+
+    /** JSON object with the same fields as {@link #toCsv}. */
+    public String toJson() {
+        return "{\"count\":" + mCount
+            + ",\"mean_ms\":" + millis(getMean())
+            + ",\"stddev_ms\":" + millis(getStdDev())
+            + ",\"min_ms\":" + millis(getMin())
+            + ",\"p50_ms\":" + millis(getPercentile(50))
+            + ",\"p90_ms\":" + millis(getPercentile(90))
+            + ",\"p99_ms\":" + millis(getPercentile(99))
+            + ",\"p99_9_ms\":" + millis(getPercentile(99.9))
+            + ",\"max_ms\":" + millis(mMax) + "}";
+    }
+}
@@ -21,71 +21,42 @@ import android.content.Intent;
 import android.os.Binder;
 import android.os.Debug;
 import android.os.IBinder;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.RemoteException;
 import android.util.Log;
-import android.net.LocalServerSocket;
-import android.net.LocalSocket;
 
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MiscService extends Service {
 
     public static final String SOCKET_NAME = "play-misc-service";
     private static final String TAG = "MiscService";
 
-    private LocalServerSocket mServerSocket = null;
+    // Enough workers for the largest concurrent client run.
+    private static final int ECHO_WORKERS = 64;
+    private static final int ECHO_BACKLOG = 64;
+
+    private EchoServer mEchoServer = null;
 
     @Override public void onCreate() {
         Log.v(TAG, "onCreate");
+        mEchoServer = new EchoServer(SOCKET_NAME, ECHO_WORKERS, ECHO_BACKLOG);
         try {
-            mServerSocket = new LocalServerSocket(SOCKET_NAME);
+            mEchoServer.start();
         } catch (IOException e) {
             Log.v(TAG, "in onCreate, making server socket: " + e);
-            return;
-        }
-
-        Thread t = new Thread() {
-                @Override public void run() {
-                    LocalSocket socket = null;
-                    while (true) {
-                        try {
-                            Log.v(TAG, "Waiting for connection...");
-                            socket = mServerSocket.accept();
-                            Log.v(TAG, "Got socket: " + socket);
-                            if (socket != null) {
-                                startEchoThread(socket);
-                            } else {
-                                return;  // socket shutdown?
-                            }
-                        } catch (IOException e) {
-                            Log.v(TAG, "in accept: " + e);
-                        }
-                    }
-                }
-            };
-        t.start();
+        }
     }
 
-    private void startEchoThread(final LocalSocket socket) {
-        Thread t = new Thread() {
-                @Override public void run() {
-                    try {
-                        InputStream is = socket.getInputStream();
-                        OutputStream os = socket.getOutputStream();
-                        while (true) {
-                            int byteRead = is.read();
-                            if (byteRead < 0) {
-                                return;  // EOF.
-                            }
-                            os.write(byteRead);
-                        }
-                    } catch (IOException e) {
-                        Log.v(TAG, "in echo thread loop: " + e);
-                    }
-                }
-            };
-        t.start();
+    @Override public void onDestroy() {
+        Log.v(TAG, "onDestroy");
+        if (mEchoServer != null) mEchoServer.stop();
     }
 
     @Override public IBinder onBind(Intent intent) {
@@ -93,12 +64,103 @@ public class MiscService extends Service {
         return mBinder;
     }
 
+    // Calls currently executing on binder threads, and the most seen at once.
+    // The peak stops growing once the binder thread pool is saturated.
+    private final AtomicInteger mCallsInFlight = new AtomicInteger();
+    private final AtomicInteger mPeakCallsInFlight = new AtomicInteger();
+
+    private void enterCall() {
+        int inFlight = mCallsInFlight.incrementAndGet();
+        int peak;
+        while (inFlight > (peak = mPeakCallsInFlight.get())) {
+            if (mPeakCallsInFlight.compareAndSet(peak, inFlight)) break;
+        }
+    }
+
+    // The client's shared ring, mapped read-only; null until attached.
+    private MappedByteBuffer mSharedRing = null;
+
+    private synchronized boolean attachSharedRing(ParcelFileDescriptor fd, int capacity) {
+        mSharedRing = null;
+        FileInputStream in = new FileInputStream(fd.getFileDescriptor());
+        try {
+            // The mapping outlives the descriptor.
+            mSharedRing = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, capacity);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "mapping shared ring: " + e);
+            return false;
+        } finally {
+            try { in.close(); } catch (IOException e) {}
+            try { fd.close(); } catch (IOException e) {}
+        }
+    }
+
+    private synchronized long drainSharedRing(int offset, int length) {
+        MappedByteBuffer ring = mSharedRing;
+        if (ring == null || offset < 0 || length < 0 || offset + length > ring.capacity()) {
+            return -1;
+        }
+        long sum = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            sum += ring.get(i);
+        }
+        return sum;
+    }
+
     private final IService.Stub mBinder = new IService.Stub() {
         public String pingString(String v) {
             return v;
         }
         public void pingVoid() {
         }
+        public String pingStringCounted(String v) {
+            enterCall();
+            mCallsInFlight.decrementAndGet();
+            return v;
+        }
+        public void pingVoidCounted() {
+            enterCall();
+            mCallsInFlight.decrementAndGet();
+        }
+        public void pingVoidOneway() {
+        }
+        public void pingOneway(int seq, int total, int ackEvery, IServiceCallback callback) {
+            // Don't trust the client to clamp ackEvery; <= 0 acks the last
+            // call only.
+            boolean batchEnd = ackEvery > 0 && (seq + 1) % ackEvery == 0;
+            if (!batchEnd && seq + 1 != total) {
+                return;
+            }
+            try {
+                callback.onAck(seq);
+            } catch (RemoteException e) {
+                Log.w(TAG, "ack failed: " + e);
+            }
+        }
+        public byte[] pingBytes(byte[] v) {
+            return v;
+        }
+        public boolean attachSharedRing(ParcelFileDescriptor fd, int capacity) {
+            return MiscService.this.attachSharedRing(fd, capacity);
+        }
+        public long drainSharedRing(int offset, int length) {
+            return MiscService.this.drainSharedRing(offset, length);
+        }
+        public long sinkBytes(byte[] v) {
+            long sum = 0;
+            for (byte b : v) sum += b;
+            return sum;
+        }
+        public Bundle getEchoStats() {
+            return mEchoServer.getStats();
+        }
+        public int resetPeakConcurrentCalls() {
+            return mPeakCallsInFlight.getAndSet(0);
+        }
+        public int getPid() {
+            return Process.myPid();
+        }
         public void startTracing(String name) {
             Debug.startMethodTracing(name);
         }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends oneway pingOneway() calls as fast as the binder driver takes them.
+ * The service acks every {@link BenchmarkSuite#getAckBatch} calls through
+ * an {@link IServiceCallback}.  The main histogram is the time each oneway
+ * call takes to hand off, which grows once the driver's async buffer for
+ * the service fills up.
+ *
+ * Also reported:
+ *   calls_per_sec   calls over the time from the first send to the last ack
+ *   backlog         calls sent but not yet acked, sampled at each send;
+ *                   a proxy for what's queued in the driver
+ *   ack_latency     series of send-to-ack times for the acked calls
+ */
+public class OnewayServiceBenchmark extends Benchmark {
+
+    private static final String TAG = "OnewayServiceBenchmark";
+
+    private static final long ACK_TIMEOUT_SECONDS = 30;
+
+    private final BenchmarkSuite mSuite;
+
+    // From the most recent run(), for report().
+    private int mAckBatch;
+    private double mCallsPerSec;
+    private LatencyHistogram mAckLatency;
+    private LatencyHistogram mBacklog;
+
+    public OnewayServiceBenchmark(String name, BenchmarkSuite suite) {
+        super(name);
+        mSuite = suite;
+    }
+
+    @Override public boolean run(final int iterations, LatencyHistogram hist) {
+        IService stub = mSuite.getServiceStub();
+        if (stub == null) {
+            Log.v(TAG, "No service stub.");
+            return false;
+        }
+        final int ackBatch = mSuite.getAckBatch();
+        final long[] sendTimes = new long[iterations];
+        final AtomicInteger acked = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        final LatencyHistogram ackLatency = new LatencyHistogram();
+        LatencyHistogram backlog = new LatencyHistogram();
+
+        // Oneway callbacks on one binder arrive one at a time, in order.
+        IServiceCallback callback = new IServiceCallback.Stub() {
+            public void onAck(int seq) {
+                long now = System.nanoTime();
+                synchronized (ackLatency) {
+                    ackLatency.record(now - sendTimes[seq]);
+                }
+                acked.set(seq + 1);
+                if (seq + 1 == iterations) done.countDown();
+            }
+        };
+
+        long startTime = System.nanoTime();
+        try {
+            for (int seq = 0; seq < iterations; seq++) {
+                long lastTime = System.nanoTime();
+                sendTimes[seq] = lastTime;
+                stub.pingOneway(seq, iterations, ackBatch, callback);
+                hist.record(System.nanoTime() - lastTime);
+                backlog.record(seq + 1 - acked.get());
+            }
+            if (!done.await(ACK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Log.w(TAG, "Timed out with " + acked.get() + " of " + iterations + " acked");
+                return false;
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, "Binder call failed", e);
+            return false;
+        } catch (InterruptedException e) {
+            return false;
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        mAckBatch = ackBatch;
+        mCallsPerSec = elapsed <= 0 ? 0.0 : iterations * 1e9 / elapsed;
+        synchronized (ackLatency) {
+            mAckLatency = ackLatency;
+        }
+        mBacklog = backlog;
+        return true;
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        result.putExtra("ack_batch", mAckBatch);
+        result.putExtra("calls_per_sec", mCallsPerSec);
+        result.putExtra("backlog_mean", mBacklog.getMean());
+        result.putExtra("backlog_p99", mBacklog.getPercentile(99));
+        result.putExtra("backlog_max", mBacklog.getMax());
+        result.putSeries("ack_latency", mAckLatency);
+    }
+}
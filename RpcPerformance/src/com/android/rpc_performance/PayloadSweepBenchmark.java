@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Moves payloads of 1 byte up to {@link BenchmarkSuite#getMaxPayloadBytes}
+ * (powers of two) over one IPC transport and reports a latency series and
+ * bandwidth per size, so transports can be compared size for size.
+ *
+ * Binder and LocalSocket are echoes, so each operation moves the payload
+ * both ways.  The provider transports only return the payload, since query
+ * arguments cannot carry bytes.  Sizes the transport rejects (binder
+ * transactions are limited to about 1MB) are logged, reported as
+ * max_ok_bytes and skipped rather than failing the whole sweep.
+ */
+public class PayloadSweepBenchmark extends Benchmark {
+
+    private static final String TAG = "PayloadSweepBenchmark";
+
+    public static final int TRANSPORT_BINDER = 0;
+    public static final int TRANSPORT_SOCKET = 1;
+    public static final int TRANSPORT_PROVIDER = 2;
+
+    // Echo in chunks so neither side blocks writing while the other is too;
+    // well under EchoServer's buffer.
+    private static final int SOCKET_CHUNK = 16 * 1024;
+
+    private final BenchmarkSuite mSuite;
+    private final int mTransport;
+    private final Uri mProviderUri;
+
+    // From the most recent run(), for report().
+    private int[] mSizes;
+    private LatencyHistogram[] mHists;
+    private int mMaxOkBytes;
+
+    /** @param providerUri base provider URI for TRANSPORT_PROVIDER, else null. */
+    public PayloadSweepBenchmark(String name, BenchmarkSuite suite, int transport,
+                                 Uri providerUri) {
+        super(name);
+        mSuite = suite;
+        mTransport = transport;
+        mProviderUri = providerUri;
+    }
+
+    @Override public boolean run(int iterations, LatencyHistogram hist) {
+        int maxBytes = mSuite.getMaxPayloadBytes();
+        int steps = 32 - Integer.numberOfLeadingZeros(maxBytes);
+        mSizes = new int[steps];
+        mHists = new LatencyHistogram[steps];
+        mMaxOkBytes = 0;
+
+        LocalSocket socket = null;
+        try {
+            if (mTransport == TRANSPORT_SOCKET) {
+                socket = new LocalSocket();
+                socket.connect(new LocalSocketAddress(MiscService.SOCKET_NAME));
+            }
+            for (int i = 0; i < steps; i++) {
+                int size = 1 << i;
+                LatencyHistogram sizeHist = new LatencyHistogram();
+                boolean ok;
+                switch (mTransport) {
+                    case TRANSPORT_BINDER:
+                        ok = binderLoop(size, iterations, sizeHist);
+                        break;
+                    case TRANSPORT_SOCKET:
+                        ok = socketLoop(socket, size, iterations, sizeHist);
+                        break;
+                    default:
+                        ok = providerLoop(size, iterations, sizeHist);
+                        break;
+                }
+                if (!ok) {
+                    Log.w(TAG, getName() + ": giving up at " + size + " bytes");
+                    break;
+                }
+                mSizes[i] = size;
+                mHists[i] = sizeHist;
+                mMaxOkBytes = size;
+                hist.add(sizeHist);
+            }
+        } catch (IOException e) {
+            Log.v(TAG, "error in " + getName() + ": " + e);
+            return false;
+        } finally {
+            if (socket != null) {
+                try { socket.close(); } catch (IOException e) {}
+            }
+        }
+        return mMaxOkBytes > 0;
+    }
+
+    private boolean binderLoop(int size, int iterations, LatencyHistogram hist) {
+        IService stub = mSuite.getServiceStub();
+        if (stub == null) {
+            Log.v(TAG, "No service stub.");
+            return false;
+        }
+        byte[] payload = new byte[size];
+        try {
+            for (int i = 0; i < iterations; i++) {
+                long lastTime = System.nanoTime();
+                byte[] back = stub.pingBytes(payload);
+                hist.record(System.nanoTime() - lastTime);
+                if (back == null || back.length != size) {
+                    Log.w(TAG, "Got " + (back == null ? "null" : back.length + " bytes")
+                          + " back; wanted " + size);
+                    return false;
+                }
+            }
+        } catch (RemoteException e) {
+            // Typically the transaction buffer limit.
+            Log.w(TAG, "Binder call failed at " + size + " bytes: " + e);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean socketLoop(LocalSocket socket, int size, int iterations,
+                               LatencyHistogram hist) throws IOException {
+        InputStream is = socket.getInputStream();
+        OutputStream os = socket.getOutputStream();
+        byte[] out = new byte[Math.min(size, SOCKET_CHUNK)];
+        byte[] in = new byte[out.length];
+        for (int i = 0; i < out.length; i++) out[i] = (byte) i;
+        for (int i = 0; i < iterations; i++) {
+            long lastTime = System.nanoTime();
+            int remaining = size;
+            while (remaining > 0) {
+                int chunk = Math.min(remaining, out.length);
+                os.write(out, 0, chunk);
+                int got = 0;
+                while (got < chunk) {
+                    int n = is.read(in, got, chunk - got);
+                    if (n < 0) throw new IOException("EOF from echo server");
+                    got += n;
+                }
+                remaining -= chunk;
+            }
+            hist.record(System.nanoTime() - lastTime);
+            if (in[0] != out[0]) {
+                Log.w(TAG, "Got wrong byte back.  Got: " + in[0] + "; wanted=" + out[0]);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean providerLoop(int size, int iterations, LatencyHistogram hist) {
+        ContentResolver cr = mSuite.getContext().getContentResolver();
+        Uri uri = mProviderUri.buildUpon()
+                .appendPath(Provider.PATH_PAYLOAD)
+                .appendPath(Integer.toString(size))
+                .build();
+        for (int i = 0; i < iterations; i++) {
+            Cursor c = null;
+            try {
+                long lastTime = System.nanoTime();
+                c = cr.query(uri, null, null, null, null);
+                byte[] value = (c != null && c.moveToNext()) ? c.getBlob(0) : null;
+                hist.record(System.nanoTime() - lastTime);
+                if (value == null || value.length != size) {
+                    Log.w(TAG, "Bad payload from " + uri);
+                    return false;
+                }
+            } catch (RuntimeException e) {
+                // e.g. the row doesn't fit in a CursorWindow.
+                Log.w(TAG, "Query failed at " + size + " bytes: " + e);
+                return false;
+            } finally {
+                if (c != null) c.close();
+            }
+        }
+        return true;
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        // Echo transports move the payload there and back.
+        int directions = mTransport == TRANSPORT_PROVIDER ? 1 : 2;
+        for (int i = 0; i < mSizes.length; i++) {
+            if (mHists[i] == null) break;
+            int size = mSizes[i];
+            long median = mHists[i].getPercentile(50);
+            double mbPerSec = median <= 0 ? 0.0
+                    : (double) size * directions / (median / 1e9) / (1024.0 * 1024.0);
+            result.putSeries("bytes=" + size, mHists[i]);
+            result.putExtra("mb_per_sec_" + size, mbPerSec);
+        }
+        result.putExtra("max_ok_bytes", mMaxOkBytes);
+    }
+}
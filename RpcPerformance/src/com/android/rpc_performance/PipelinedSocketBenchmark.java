@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LocalSocket round trips with up to K framed requests in flight at once,
+ * for K = 1, 2, 4 ... {@link BenchmarkSuite#getMaxWindow}.  K = 1 is the
+ * synchronous ping-pong of the plain localsocket benchmark, with framing.
+ *
+ * Frames are a 4 byte big-endian length, then a payload of
+ * {@link BenchmarkSuite#getFrameBytes} bytes whose first 4 bytes are the
+ * sequence number.  The calling thread sends; a reader thread receives the
+ * echoes, checks the sequence and records each frame's latency from the
+ * moment it was sent.
+ */
+public class PipelinedSocketBenchmark extends Benchmark {
+
+    private static final String TAG = "PipelinedSocketBenchmark";
+
+    private static final int HEADER_BYTES = 4;
+
+    private final BenchmarkSuite mSuite;
+
+    // From the most recent run(), for report().
+    private int[] mWindows;
+    private double[] mFramesPerSec;
+    private LatencyHistogram[] mHists;
+
+    public PipelinedSocketBenchmark(String name, BenchmarkSuite suite) {
+        super(name);
+        mSuite = suite;
+    }
+
+    @Override public boolean run(int iterations, LatencyHistogram hist) {
+        int maxWindow = mSuite.getMaxWindow();
+        int payloadBytes = Math.max(HEADER_BYTES, mSuite.getFrameBytes());
+        int steps = 32 - Integer.numberOfLeadingZeros(maxWindow);
+        mWindows = new int[steps];
+        mFramesPerSec = new double[steps];
+        mHists = new LatencyHistogram[steps];
+
+        LocalSocket socket = null;
+        try {
+            socket = new LocalSocket();
+            socket.connect(new LocalSocketAddress(MiscService.SOCKET_NAME));
+            for (int i = 0; i < steps; i++) {
+                int window = 1 << i;
+                LatencyHistogram windowHist = new LatencyHistogram();
+                long elapsed = runWindow(socket, window, payloadBytes, iterations, windowHist);
+                if (elapsed < 0) return false;
+                mWindows[i] = window;
+                mFramesPerSec[i] = elapsed == 0 ? 0.0 : iterations * 1e9 / elapsed;
+                mHists[i] = windowHist;
+                hist.add(windowHist);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.v(TAG, "error in pipelined socket loop: " + e);
+            return false;
+        } finally {
+            if (socket != null) {
+                try { socket.close(); } catch (IOException e) {}
+            }
+        }
+    }
+
+    // Returns elapsed nanoseconds for all frames, or -1 on failure.
+    private long runWindow(LocalSocket socket, int window, int payloadBytes,
+                           final int frames, final LatencyHistogram hist) throws IOException {
+        final Semaphore inFlight = new Semaphore(window);
+        final AtomicLongArray sendTimes = new AtomicLongArray(window);
+        final DataInputStream in = new DataInputStream(socket.getInputStream());
+        final int frameBytes = HEADER_BYTES + payloadBytes;
+        final int slots = window;
+        final IOException[] readError = new IOException[1];
+
+        Thread reader = new Thread("pipelined-reader") {
+            @Override public void run() {
+                byte[] frame = new byte[frameBytes];
+                try {
+                    for (int seq = 0; seq < frames; seq++) {
+                        in.readFully(frame);
+                        long now = System.nanoTime();
+                        int gotSeq = readInt(frame, HEADER_BYTES);
+                        if (gotSeq != seq) {
+                            throw new IOException("Got frame " + gotSeq + "; wanted " + seq);
+                        }
+                        hist.record(now - sendTimes.get(seq % slots));
+                        inFlight.release();
+                    }
+                } catch (IOException e) {
+                    synchronized (readError) { readError[0] = e; }
+                    // Unblock the writer.
+                    inFlight.release(frames);
+                }
+            }
+        };
+        reader.start();
+
+        OutputStream os = socket.getOutputStream();
+        byte[] frame = new byte[frameBytes];
+        writeInt(frame, 0, payloadBytes);
+        long startTime = System.nanoTime();
+        try {
+            for (int seq = 0; seq < frames; seq++) {
+                inFlight.acquire();
+                writeInt(frame, HEADER_BYTES, seq);
+                sendTimes.set(seq % slots, System.nanoTime());
+                os.write(frame);
+            }
+            reader.join();
+        } catch (InterruptedException e) {
+            return -1;
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        synchronized (readError) {
+            if (readError[0] != null) {
+                Log.v(TAG, "error reading echoes: " + readError[0]);
+                return -1;
+            }
+        }
+        return elapsed;
+    }
+
+    private static void writeInt(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 24);
+        b[offset + 1] = (byte) (v >>> 16);
+        b[offset + 2] = (byte) (v >>> 8);
+        b[offset + 3] = (byte) v;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16)
+                | ((b[offset + 2] & 0xff) << 8) | (b[offset + 3] & 0xff);
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        result.putExtra("frame_bytes", Math.max(HEADER_BYTES, mSuite.getFrameBytes()));
+        double base = mFramesPerSec[0];
+        for (int i = 0; i < mWindows.length; i++) {
+            int window = mWindows[i];
+            result.putSeries("window=" + window, mHists[i]);
+            result.putExtra("frames_per_sec_" + window, mFramesPerSec[i]);
+            if (i > 0 && base > 0) {
+                result.putExtra("speedup_" + window, mFramesPerSec[i] / base);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Re-reads one /proc file through a descriptor that stays open, into a
+ * buffer that is reused, and parses numbers straight out of the bytes.
+ * After the buffer has grown to fit the file, {@link #read} and the
+ * getters don't allocate.
+ *
+ * /proc files regenerate their contents when read from offset 0, so
+ * seeking back is enough to see fresh values.  Not thread-safe.
+ */
+public class ProcFileReader {
+
+    private final String mPath;
+    private RandomAccessFile mFile;
+    private byte[] mBuffer = new byte[1024];
+    private int mLength;
+
+    public ProcFileReader(String path) {
+        mPath = path;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /** Rereads the whole file; returns its length. */
+    public int read() throws IOException {
+        if (mFile == null) {
+            mFile = new RandomAccessFile(mPath, "r");
+        }
+        mFile.seek(0);
+        mLength = 0;
+        while (true) {
+            if (mLength == mBuffer.length) {
+                byte[] bigger = new byte[mBuffer.length * 2];
+                System.arraycopy(mBuffer, 0, bigger, 0, mLength);
+                mBuffer = bigger;
+            }
+            int n = mFile.read(mBuffer, mLength, mBuffer.length - mLength);
+            if (n <= 0) break;
+            mLength += n;
+        }
+        return mLength;
+    }
+
+    public void close() {
+        if (mFile != null) {
+            try { mFile.close(); } catch (IOException e) {}
+            mFile = null;
+        }
+    }
+
+    /** Offset just past the last {@code b} in the file, or 0 if there's none. */
+    public int afterLast(byte b) {
+        for (int i = mLength - 1; i >= 0; i--) {
+            if (mBuffer[i] == b) return i + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * The number in whitespace-separated field {@code field} (0 based),
+     * counting from {@code offset}; -1 if there's no such field.
+     */
+    public long getField(int offset, int field) {
+        int i = offset;
+        for (int f = 0; ; f++) {
+            while (i < mLength && isSpace(mBuffer[i])) i++;
+            if (i >= mLength) return -1;
+            if (f == field) return parseLong(i);
+            while (i < mLength && !isSpace(mBuffer[i])) i++;
+        }
+    }
+
+    /**
+     * The first number after a line starting with {@code label}, e.g.
+     * label("MemFree:") in /proc/meminfo; -1 if there's no such line.
+     */
+    public long getLabeled(byte[] label) {
+        int lineStart = 0;
+        while (lineStart < mLength) {
+            if (startsWith(lineStart, label)) {
+                int i = lineStart + label.length;
+                while (i < mLength && isSpace(mBuffer[i])) i++;
+                return parseLong(i);
+            }
+            while (lineStart < mLength && mBuffer[lineStart] != '\n') lineStart++;
+            lineStart++;
+        }
+        return -1;
+    }
+
+    /** Encodes a label for {@link #getLabeled}, once, outside any loop. */
+    public static byte[] label(String label) {
+        byte[] bytes = new byte[label.length()];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) label.charAt(i);
+        return bytes;
+    }
+
+    private boolean startsWith(int offset, byte[] prefix) {
+        if (offset + prefix.length > mLength) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (mBuffer[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private long parseLong(int offset) {
+        long value = 0;
+        boolean negative = offset < mLength && mBuffer[offset] == '-';
+        if (negative) offset++;
+        for (int i = offset; i < mLength; i++) {
+            int digit = mBuffer[i] - '0';
+            if (digit < 0 || digit > 9) break;
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t';
+    }
+}
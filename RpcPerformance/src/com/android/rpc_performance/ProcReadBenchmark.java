@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Polls a /proc file and pulls a value out of it, the way monitoring code
+ * does, either with a {@link ProcFileReader} kept across iterations or the
+ * usual way: open a FileInputStream, read, close, make a String, split.
+ *
+ *   FILE_SELF_STAT  /proc/self/stat, utime + stime
+ *   FILE_STAT       /proc/stat, user + nice + system + idle of all CPUs
+ *   FILE_MEMINFO    /proc/meminfo, MemFree
+ *
+ * Each sample is one read and parse.  The allocation extras show the
+ * garbage difference.
+ */
+public class ProcReadBenchmark extends Benchmark {
+
+    private static final String TAG = "ProcReadBenchmark";
+
+    public static final int FILE_SELF_STAT = 0;
+    public static final int FILE_STAT = 1;
+    public static final int FILE_MEMINFO = 2;
+
+    private static final String[] PATHS = {"/proc/self/stat", "/proc/stat", "/proc/meminfo"};
+    private static final byte[] MEM_FREE = ProcFileReader.label("MemFree:");
+
+    private final int mFile;
+    private final boolean mReuse;
+
+    public ProcReadBenchmark(String name, int file, boolean reuse) {
+        super(name);
+        mFile = file;
+        mReuse = reuse;
+    }
+
+    @Override public boolean run(int iterations, LatencyHistogram hist) {
+        String path = PATHS[mFile];
+        ProcFileReader reader = mReuse ? new ProcFileReader(path) : null;
+        try {
+            for (int i = 0; i < iterations; i++) {
+                long lastTime = System.nanoTime();
+                long value = mReuse ? parse(reader) : parseFresh(path);
+                hist.record(System.nanoTime() - lastTime);
+                if (value < 0) {
+                    Log.w(TAG, "Couldn't parse " + path);
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Reading " + path + " failed", e);
+            return false;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Parsing " + path + " failed", e);
+            return false;
+        } finally {
+            if (reader != null) reader.close();
+        }
+    }
+
+    private long parse(ProcFileReader reader) throws IOException {
+        reader.read();
+        switch (mFile) {
+            case FILE_SELF_STAT: {
+                // Fields after the command name, which can hold spaces;
+                // utime and stime are 11 and 12 from there.
+                int offset = reader.afterLast((byte) ')');
+                return reader.getField(offset, 11) + reader.getField(offset, 12);
+            }
+            case FILE_STAT: {
+                long sum = 0;
+                for (int field = 1; field <= 4; field++) sum += reader.getField(0, field);
+                return sum;
+            }
+            default:
+                return reader.getLabeled(MEM_FREE);
+        }
+    }
+
+    private long parseFresh(String path) throws IOException {
+        byte[] buf = new byte[4096];
+        int length = 0;
+        FileInputStream in = new FileInputStream(path);
+        try {
+            int n;
+            while ((n = in.read(buf, length, buf.length - length)) > 0) {
+                length += n;
+                if (length == buf.length) {
+                    byte[] bigger = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, bigger, 0, length);
+                    buf = bigger;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        String text = new String(buf, 0, length);
+        switch (mFile) {
+            case FILE_SELF_STAT: {
+                String[] fields = text.substring(text.lastIndexOf(')') + 2).split(" ");
+                return Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+            }
+            case FILE_STAT: {
+                String[] fields = text.substring(0, text.indexOf('\n')).split(" +");
+                long sum = 0;
+                for (int field = 1; field <= 4; field++) sum += Long.parseLong(fields[field]);
+                return sum;
+            }
+            default:
+                for (String line : text.split("\n")) {
+                    if (line.startsWith("MemFree:")) {
+                        return Long.parseLong(line.substring(8).trim().split(" +")[0]);
+                    }
+                }
+                return -1;
+        }
+    }
+}
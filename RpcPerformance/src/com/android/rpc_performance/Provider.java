@@ -17,13 +17,54 @@
 package com.android.rpc_performance;
 
 import android.content.ContentProvider;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class Provider extends ContentProvider {
 
+    // content://AUTHORITY/payload/N returns one row holding an N byte blob.
+    public static final String PATH_PAYLOAD = "payload";
+
+    // content://AUTHORITY/synthetic?rows=R&columns=C&cell_bytes=B returns R
+    // generated rows of an _id and C strings of B bytes each.
+    public static final String PATH_SYNTHETIC = "synthetic";
+    public static final String PARAM_ROWS = "rows";
+    public static final String PARAM_COLUMNS = "columns";
+    public static final String PARAM_CELL_BYTES = "cell_bytes";
+
+    // content://AUTHORITY/rows is an in-memory table for the write and
+    // workload benchmarks.  Inserts append; deleting it clears everything
+    // and starts ids again from 1.  Querying it returns the first PARAM_LIMIT
+    // rows (default all) as ROW_COLUMNS.  content://AUTHORITY/rows/ID is one
+    // row, for query, update and delete.
+    public static final String PATH_ROWS = "rows";
+    public static final String PARAM_LIMIT = "limit";
+    public static final String[] ROW_COLUMNS = {"_id", "name", "value", "data"};
+
+    // call() method inserting the ContentValues list in extras under
+    // KEY_ROWS into the rows table.  Returns KEY_COUNT.
+    public static final String METHOD_INSERT_ROWS = "insert_rows";
+    public static final String KEY_ROWS = "rows";
+    public static final String KEY_COUNT = "count";
+
+    // call() method returning the row whose id is arg as KEY_ROW, or null.
+    public static final String METHOD_GET_ROW = "get_row";
+    public static final String KEY_ROW = "row";
+
+    private byte[] mPayload = new byte[0];
+
+    private final TreeMap<Long, ContentValues> mRows = new TreeMap<Long, ContentValues>();
+    private long mNextRowId = 1;
+
     public boolean onCreate() {
         return true;
     }
@@ -31,21 +72,174 @@ public class Provider extends ContentProvider {
     public Cursor query(Uri uri, String[] projection,
                         String selection, String[] selectionArgs,
                         String sortOrder) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() == 2 && PATH_PAYLOAD.equals(segments.get(0))) {
+            return payloadQuery(Integer.parseInt(segments.get(1)));
+        }
+        if (segments.size() == 1 && PATH_SYNTHETIC.equals(segments.get(0))) {
+            return new SyntheticCursor(intParam(uri, PARAM_ROWS, 1),
+                                       intParam(uri, PARAM_COLUMNS, 1),
+                                       intParam(uri, PARAM_CELL_BYTES, 16));
+        }
+        if (isRows(uri)) {
+            return rowsQuery(intParam(uri, PARAM_LIMIT, Integer.MAX_VALUE));
+        }
+        long id = rowId(uri);
+        if (id >= 0) {
+            return rowQuery(id);
+        }
         MatrixCursor c = new MatrixCursor(new String[]{"value"}, 1);
         c.addRow(new String[]{"my_value"});
         return c;
     }
 
+    private Cursor payloadQuery(int size) {
+        byte[] payload;
+        synchronized (this) {
+            if (mPayload.length != size) mPayload = new byte[size];
+            payload = mPayload;
+        }
+        MatrixCursor c = new MatrixCursor(new String[]{"value"}, 1);
+        c.addRow(new Object[]{payload});
+        return c;
+    }
+
+    private Cursor rowsQuery(int limit) {
+        MatrixCursor c;
+        synchronized (mRows) {
+            c = new MatrixCursor(ROW_COLUMNS, Math.min(limit, mRows.size()));
+            for (Map.Entry<Long, ContentValues> row : mRows.entrySet()) {
+                if (limit-- <= 0) break;
+                addRow(c, row.getKey(), row.getValue());
+            }
+        }
+        return c;
+    }
+
+    private Cursor rowQuery(long id) {
+        MatrixCursor c = new MatrixCursor(ROW_COLUMNS, 1);
+        synchronized (mRows) {
+            ContentValues row = mRows.get(id);
+            if (row != null) addRow(c, id, row);
+        }
+        return c;
+    }
+
+    private static void addRow(MatrixCursor c, long id, ContentValues row) {
+        c.addRow(new Object[]{id, row.getAsString("name"), row.getAsLong("value"),
+                              row.getAsString("data")});
+    }
+
+    private static int intParam(Uri uri, String name, int defaultValue) {
+        String value = uri.getQueryParameter(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static boolean isRows(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.size() == 1 && PATH_ROWS.equals(segments.get(0));
+    }
+
+    // The id from content://AUTHORITY/rows/ID, else -1.
+    private static long rowId(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !PATH_ROWS.equals(segments.get(0))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(segments.get(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     public Uri insert(Uri uri, ContentValues values) {
+        if (!isRows(uri)) {
+            return null;
+        }
+        long id;
+        synchronized (mRows) {
+            id = mNextRowId++;
+            mRows.put(id, values);
+        }
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (!isRows(uri)) {
+            return 0;
+        }
+        return insertRows(values);
+    }
+
+    private int insertRows(ContentValues[] values) {
+        synchronized (mRows) {
+            for (ContentValues v : values) {
+                mRows.put(mNextRowId++, v);
+            }
+        }
+        return values.length;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (METHOD_INSERT_ROWS.equals(method) && extras != null) {
+            ArrayList<ContentValues> rows = extras.getParcelableArrayList(KEY_ROWS);
+            Bundle result = new Bundle();
+            result.putInt(KEY_COUNT,
+                          rows == null ? 0 : insertRows(rows.toArray(new ContentValues[rows.size()])));
+            return result;
+        }
+        if (METHOD_GET_ROW.equals(method) && arg != null) {
+            ContentValues row;
+            synchronized (mRows) {
+                row = mRows.get(Long.parseLong(arg));
+            }
+            if (row == null) {
+                return null;
+            }
+            Bundle result = new Bundle();
+            result.putParcelable(KEY_ROW, row);
+            return result;
+        }
         return null;
     }
 
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        return 0;
+        long id = rowId(uri);
+        if (id < 0) {
+            return 0;
+        }
+        synchronized (mRows) {
+            ContentValues row = mRows.get(id);
+            if (row == null) {
+                return 0;
+            }
+            // In-process callers' values are stored as is, so don't modify them.
+            ContentValues updated = new ContentValues(row);
+            updated.putAll(values);
+            mRows.put(id, updated);
+        }
+        return 1;
     }
 
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        return 0;
+        long id = rowId(uri);
+        if (id >= 0) {
+            synchronized (mRows) {
+                return mRows.remove(id) == null ? 0 : 1;
+            }
+        }
+        if (!isRows(uri)) {
+            return 0;
+        }
+        synchronized (mRows) {
+            int count = mRows.size();
+            mRows.clear();
+            mNextRowId = 1;
+            return count;
+        }
     }
 
     public String getType(Uri uri) {
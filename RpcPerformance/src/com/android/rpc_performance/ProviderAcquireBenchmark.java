@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.content.ContentResolver;
+import android.content.IContentProvider;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * Splits the cost of a provider query into acquiring the provider and
+ * using it:
+ *
+ *   MODE_ACQUIRE  acquireProvider() + releaseProvider() alone
+ *   MODE_CACHED   the no-op query through a {@link ProviderClientCache}
+ *                 handle held for the whole run
+ *
+ * The noop_provider_* benchmarks run the same query through
+ * ContentResolver.query(), which acquires and releases every time;
+ * compare the three for each of Provider and LocalProvider.
+ */
+public class ProviderAcquireBenchmark extends Benchmark {
+
+    private static final String TAG = "ProviderAcquireBenchmark";
+
+    public static final int MODE_ACQUIRE = 0;
+    public static final int MODE_CACHED = 1;
+
+    private static final String[] IGNORED_COLUMN = {"ignored"};
+
+    private final BenchmarkSuite mSuite;
+    private final Uri mProviderUri;
+    private final int mMode;
+
+    // From the most recent run(), for report().
+    private int mAcquisitions;
+    private int mDeaths;
+
+    public ProviderAcquireBenchmark(String name, BenchmarkSuite suite, Uri providerUri,
+                                    int mode) {
+        super(name);
+        mSuite = suite;
+        mProviderUri = providerUri;
+        mMode = mode;
+    }
+
+    @Override public boolean run(int iterations, LatencyHistogram hist) {
+        ContentResolver cr = mSuite.getContext().getContentResolver();
+        String authority = mProviderUri.getAuthority();
+        if (mMode == MODE_ACQUIRE) {
+            for (int i = 0; i < iterations; i++) {
+                long lastTime = System.nanoTime();
+                IContentProvider provider = cr.acquireProvider(authority);
+                if (provider == null) {
+                    Log.w(TAG, "No provider for " + authority);
+                    return false;
+                }
+                cr.releaseProvider(provider);
+                hist.record(System.nanoTime() - lastTime);
+            }
+            return true;
+        }
+
+        ProviderClientCache cache = new ProviderClientCache(cr);
+        ProviderClientCache.Handle handle = cache.acquire(authority);
+        try {
+            for (int i = 0; i < iterations; i++) {
+                long lastTime = System.nanoTime();
+                IContentProvider provider = handle.get();
+                if (provider == null) {
+                    Log.w(TAG, "No provider for " + authority);
+                    return false;
+                }
+                Cursor c = provider.query(mProviderUri, IGNORED_COLUMN, "name=?",
+                                          IGNORED_COLUMN, null);
+                if (c == null) {
+                    Log.w(TAG, "cursor null");
+                    return false;
+                }
+                if (c.moveToNext()) c.getString(0);
+                c.close();
+                hist.record(System.nanoTime() - lastTime);
+            }
+        } catch (RemoteException e) {
+            // The handle acquires again on the next run.
+            Log.w(TAG, "Provider query failed: " + e);
+            return false;
+        } finally {
+            handle.release();
+        }
+        mAcquisitions = cache.getAcquisitions();
+        mDeaths = cache.getDeaths();
+        return true;
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        if (mMode == MODE_CACHED) {
+            result.putExtra("acquisitions", mAcquisitions);
+            result.putExtra("provider_deaths", mDeaths);
+        }
+    }
+}
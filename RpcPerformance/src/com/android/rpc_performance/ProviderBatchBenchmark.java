@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Writes batches of N rows into {@link Provider}'s in-memory rows table,
+ * for N = 1, 10, 100 ... {@link BenchmarkSuite#getMaxBatchRows}, in one
+ * of four ways:
+ *
+ *   MODE_INSERT       one insert() per row
+ *   MODE_BULK_INSERT  one bulkInsert()
+ *   MODE_APPLY_BATCH  one applyBatch() of insert operations
+ *   MODE_CALL         one call() with all rows in a Bundle
+ *
+ * Each sample is the time for a whole batch; the report also gives the
+ * median cost per row for each N.  Rows, operations and the Bundle are
+ * built before the clock starts, so only the transfer and the provider's
+ * work are measured.  To keep large N affordable, N > 100 runs
+ * iterations * 100 / N batches (at least one).
+ */
+public class ProviderBatchBenchmark extends Benchmark {
+
+    private static final String TAG = "ProviderBatchBenchmark";
+
+    public static final int MODE_INSERT = 0;
+    public static final int MODE_BULK_INSERT = 1;
+    public static final int MODE_APPLY_BATCH = 2;
+    public static final int MODE_CALL = 3;
+
+    private final BenchmarkSuite mSuite;
+    private final Uri mProviderUri;
+    private final int mMode;
+
+    // From the most recent run(), for report().
+    private ArrayList<Integer> mRowCounts;
+    private ArrayList<LatencyHistogram> mHists;
+
+    public ProviderBatchBenchmark(String name, BenchmarkSuite suite, Uri providerUri, int mode) {
+        super(name);
+        mSuite = suite;
+        mProviderUri = providerUri;
+        mMode = mode;
+    }
+
+    @Override public boolean run(int iterations, LatencyHistogram hist) {
+        ContentResolver cr = mSuite.getContext().getContentResolver();
+        Uri rowsUri = Uri.withAppendedPath(mProviderUri, Provider.PATH_ROWS);
+        mRowCounts = new ArrayList<Integer>();
+        mHists = new ArrayList<LatencyHistogram>();
+
+        for (int rows = 1; rows <= mSuite.getMaxBatchRows(); rows *= 10) {
+            ContentValues[] values = new ContentValues[rows];
+            for (int i = 0; i < rows; i++) {
+                values[i] = new ContentValues();
+                values[i].put("name", "row" + i);
+                values[i].put("value", (long) i);
+                values[i].put("data", "0123456789abcdef0123456789abcdef");
+            }
+            ArrayList<ContentProviderOperation> ops = null;
+            Bundle extras = null;
+            if (mMode == MODE_APPLY_BATCH) {
+                ops = new ArrayList<ContentProviderOperation>(rows);
+                for (ContentValues v : values) {
+                    ops.add(ContentProviderOperation.newInsert(rowsUri).withValues(v).build());
+                }
+            } else if (mMode == MODE_CALL) {
+                ArrayList<ContentValues> list = new ArrayList<ContentValues>(rows);
+                for (ContentValues v : values) list.add(v);
+                extras = new Bundle();
+                extras.putParcelableArrayList(Provider.KEY_ROWS, list);
+            }
+
+            int batches = rows <= 100 ? iterations : Math.max(1, iterations * 100 / rows);
+            LatencyHistogram rowsHist = new LatencyHistogram();
+            try {
+                for (int b = 0; b < batches; b++) {
+                    cr.delete(rowsUri, null, null);
+                    long lastTime = System.nanoTime();
+                    int inserted = rows;
+                    switch (mMode) {
+                        case MODE_INSERT:
+                            inserted = 0;
+                            for (ContentValues v : values) {
+                                if (cr.insert(rowsUri, v) != null) inserted++;
+                            }
+                            if (inserted != rows) {
+                                // insert() returns null rather than throwing
+                                // when the provider or the binder call fails.
+                                Log.w(TAG, getName() + ": insert failed for "
+                                      + (rows - inserted) + " of " + rows + " rows");
+                                cr.delete(rowsUri, null, null);
+                                return false;
+                            }
+                            break;
+                        case MODE_BULK_INSERT:
+                            inserted = cr.bulkInsert(rowsUri, values);
+                            break;
+                        case MODE_APPLY_BATCH:
+                            cr.applyBatch(mProviderUri.getAuthority(), ops);
+                            break;
+                        case MODE_CALL:
+                            Bundle reply = cr.call(mProviderUri, Provider.METHOD_INSERT_ROWS,
+                                                   null, extras);
+                            inserted = reply == null ? 0 : reply.getInt(Provider.KEY_COUNT);
+                            break;
+                    }
+                    rowsHist.record(System.nanoTime() - lastTime);
+                    if (inserted != rows) {
+                        // ContentResolver swallows RemoteExceptions, e.g. for
+                        // a transaction that's too large.
+                        throw new IllegalStateException("inserted " + inserted + " of " + rows);
+                    }
+                }
+            } catch (RemoteException e) {
+                Log.e(TAG, "applyBatch failed", e);
+                return false;
+            } catch (OperationApplicationException e) {
+                Log.e(TAG, "applyBatch failed", e);
+                return false;
+            } catch (RuntimeException e) {
+                // e.g. the Bundle or batch is too big for one transaction.
+                Log.w(TAG, getName() + " failed at " + rows + " rows: " + e);
+                break;
+            }
+            mRowCounts.add(rows);
+            mHists.add(rowsHist);
+            hist.add(rowsHist);
+        }
+        cr.delete(rowsUri, null, null);
+        return !mHists.isEmpty();
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        for (int i = 0; i < mHists.size(); i++) {
+            int rows = mRowCounts.get(i);
+            LatencyHistogram h = mHists.get(i);
+            result.putSeries("rows=" + rows, h);
+            result.putExtra("us_per_row_" + rows, h.getPercentile(50) / 1000.0 / rows);
+        }
+    }
+}
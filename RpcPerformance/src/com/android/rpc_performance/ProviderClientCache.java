@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.content.ContentResolver;
+import android.content.IContentProvider;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.HashMap;
+
+/**
+ * Shares one acquired IContentProvider per authority between everyone
+ * holding a {@link Handle} to it, instead of each query resolving and
+ * acquiring the provider again the way ContentResolver.query() does.
+ *
+ * The provider is acquired with the first handle and released with the
+ * last.  If its process dies, the cached reference is dropped, and the
+ * next {@link Handle#get} acquires it again.
+ */
+public class ProviderClientCache {
+
+    private static final String TAG = "ProviderClientCache";
+
+    private final ContentResolver mResolver;
+
+    // Guarded by this.
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    private int mAcquisitions;
+    private int mDeaths;
+
+    private class Entry implements IBinder.DeathRecipient {
+        final String authority;
+        IContentProvider provider;
+        int refs;
+
+        Entry(String authority) {
+            this.authority = authority;
+        }
+
+        public void binderDied() {
+            synchronized (ProviderClientCache.this) {
+                Log.w(TAG, "Provider for " + authority + " died");
+                // ActivityThread forgets dead providers itself; nothing to release.
+                provider = null;
+                mDeaths++;
+            }
+        }
+    }
+
+    /** A reference to the provider for one authority.  Release it when done. */
+    public class Handle {
+        private final String mAuthority;
+        private boolean mReleased;
+
+        Handle(String authority) {
+            mAuthority = authority;
+        }
+
+        /** The provider, acquiring it again if it died; null if it can't be. */
+        public IContentProvider get() {
+            synchronized (ProviderClientCache.this) {
+                if (mReleased) throw new IllegalStateException("Handle released");
+                return providerLocked(mEntries.get(mAuthority));
+            }
+        }
+
+        public void release() {
+            synchronized (ProviderClientCache.this) {
+                if (mReleased) return;
+                mReleased = true;
+                Entry entry = mEntries.get(mAuthority);
+                if (--entry.refs > 0) return;
+                mEntries.remove(mAuthority);
+                if (entry.provider != null) {
+                    entry.provider.asBinder().unlinkToDeath(entry, 0);
+                    mResolver.releaseProvider(entry.provider);
+                }
+            }
+        }
+    }
+
+    public ProviderClientCache(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    public synchronized Handle acquire(String authority) {
+        Entry entry = mEntries.get(authority);
+        if (entry == null) {
+            entry = new Entry(authority);
+            mEntries.put(authority, entry);
+        }
+        entry.refs++;
+        providerLocked(entry);
+        return new Handle(authority);
+    }
+
+    private IContentProvider providerLocked(Entry entry) {
+        if (entry.provider == null) {
+            IContentProvider provider = mResolver.acquireProvider(entry.authority);
+            if (provider == null) return null;
+            mAcquisitions++;
+            try {
+                // A no-op for in-process providers.
+                provider.asBinder().linkToDeath(entry, 0);
+            } catch (RemoteException e) {
+                // Died already.
+                mResolver.releaseProvider(provider);
+                return null;
+            }
+            entry.provider = provider;
+        }
+        return entry.provider;
+    }
+
+    /** Times a provider has been acquired from the system. */
+    public synchronized int getAcquisitions() {
+        return mAcquisitions;
+    }
+
+    public synchronized int getDeaths() {
+        return mDeaths;
+    }
+}
@@ -21,78 +21,25 @@
 package com.android.rpc_performance;
 
 import android.app.Activity;
-import android.content.ComponentName;
-import android.content.ContentQueryMap;
-import android.content.ContentResolver;
-import android.content.ContentValues;
-import android.content.IContentProvider;
-import android.content.Context;
 import android.content.Intent;
-import android.content.ServiceConnection;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
-import android.content.res.Configuration;
-import android.content.res.Resources;
-import android.database.Cursor;
-import android.database.SQLException;
-import android.net.LocalSocket;
-import android.net.LocalSocketAddress;
-import android.net.Uri;
-import android.os.Binder;
 import android.os.Bundle;
 import android.os.Debug;
 import android.os.Handler;
-import android.os.IBinder;
-import android.os.Parcel;
-import android.os.RemoteException;
-import android.os.ServiceManager;
-import android.os.SystemClock;
-import android.os.StrictMode;
-import android.telephony.TelephonyManager;
-import android.text.TextUtils;
-import android.util.AndroidException;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.RandomAccessFile;
-
 public class ProviderPerfActivity extends Activity {
 
     private static final String TAG = "ProviderPerfActivity";
-    private static final Uri SYSTEM_SETTINGS_URI = Uri.parse("content://settings/system");
-
-    // No-op provider URLs:
-    private static final Uri CROSS_PROC_PROVIDER_URI = Uri.parse("content://com.android.rpc_performance/");
-    private static final Uri IN_PROC_PROVIDER_URI = Uri.parse("content://com.android.rpc_performance.local/");
 
     private final Handler mHandler = new Handler();
-    private final static int LOOP_TIME_MILLIS = 2000;
-    private final static long LOOP_TIME_NANOS = (long) LOOP_TIME_MILLIS * 1000000L;
-
-    private IService mServiceStub = null;
-    private ServiceConnection serviceConnection = new ServiceConnection() {
-        public void onServiceConnected(ComponentName name, IBinder service) {
-            mServiceStub = IService.Stub.asInterface(service);
-            Log.v(TAG, "Service bound");
-        }
-
-        public void onServiceDisconnected(ComponentName name) {
-            mServiceStub = null;
-            Log.v(TAG, "Service unbound");
-        };
-    };
 
-
-    private ContentResolver cr;
+    private BenchmarkSuite mSuite;
+    private ResultStore mStore;
+    private String mRunId;
     private int mIterations = 100;
-    private String mTraceName = null;
 
     /** Called when the activity is first created. */
     @Override
@@ -100,145 +47,178 @@ public class ProviderPerfActivity extends Activity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
 
-        cr = getContentResolver();
-
-        setButtonAction(R.id.file_read_button, new Runnable() {
-                public void run() {
-                    final float avgTime = fileReadLoop();
-                    endAsyncOp(R.id.file_read_button, R.id.file_read_text, avgTime);
-                }});
-
-        setButtonAction(R.id.file_write_button, new Runnable() {
-                public void run() {
-                    final float avgTime = fileWriteLoop();
-                    endAsyncOp(R.id.file_write_button, R.id.file_write_text, avgTime);
-                }});
-
-        setButtonAction(R.id.settings_read_button, new Runnable() {
-                public void run() {
-                    final float avgTime = settingsProviderLoop(MODE_READ, 0);
-                    endAsyncOp(R.id.settings_read_button, R.id.settings_read_text, avgTime);
-                }});
-
-        setButtonAction(R.id.settings_sleep_button, new Runnable() {
-                public void run() {
-                    final float avgTime = settingsProviderLoop(MODE_READ, 100);
-                    endAsyncOp(R.id.settings_sleep_button, R.id.settings_sleep_text, avgTime);
-                }});
-
-        setButtonAction(R.id.settings_write_button, new Runnable() {
-                public void run() {
-                    final float avgTime = settingsProviderLoop(MODE_WRITE, 0);
-                    endAsyncOp(R.id.settings_write_button, R.id.settings_write_text, avgTime);
-                }});
-
-        setButtonAction(R.id.settings_writedup_button, new Runnable() {
-                public void run() {
-                    final float avgTime = settingsProviderLoop(MODE_WRITE_DUP, 0);
-                    endAsyncOp(R.id.settings_writedup_button, R.id.settings_writedup_text, avgTime);
-                }});
-
-        setButtonAction(R.id.dummy_lookup_button, new Runnable() {
-                public void run() {
-                    final float avgTime = noOpProviderLoop(CROSS_PROC_PROVIDER_URI);
-                    endAsyncOp(R.id.dummy_lookup_button, R.id.dummy_lookup_text, avgTime);
-                }});
-
-        setButtonAction(R.id.dummy_local_lookup_button, new Runnable() {
-                public void run() {
-                    final float avgTime = noOpProviderLoop(IN_PROC_PROVIDER_URI);
-                    endAsyncOp(R.id.dummy_local_lookup_button,
-                               R.id.dummy_local_lookup_text, avgTime);
-                }});
+        mSuite = new BenchmarkSuite(this);
 
-        setButtonAction(R.id.localsocket_button, new Runnable() {
-                public void run() {
-                    final float avgTime = localSocketLoop();
-                    endAsyncOp(R.id.localsocket_button, R.id.localsocket_text, avgTime);
-                }});
-
-        setButtonAction(R.id.service_button, new Runnable() {
-                public void run() {
-                    final float avgTime = serviceLoop(null);
-                    endAsyncOp(R.id.service_button, R.id.service_text, avgTime);
-                }});
-
-        setButtonAction(R.id.service2_button, new Runnable() {
-                public void run() {
-                    final float avgTime = serviceLoop("xyzzy");
-                    endAsyncOp(R.id.service2_button, R.id.service2_text, avgTime);
-                }});
-
-        setButtonAction(R.id.ping_media_button, new Runnable() {
-                public void run() {
-                    final float avgTime = pingServiceLoop("media.player");
-                    endAsyncOp(R.id.ping_media_button, R.id.ping_media_text, avgTime);
-                }});
-
-        setButtonAction(R.id.ping_activity_button, new Runnable() {
-                public void run() {
-                    final float avgTime = pingServiceLoop("activity");
-                    endAsyncOp(R.id.ping_activity_button, R.id.ping_activity_text, avgTime);
-                }});
-
-        setButtonAction(R.id.proc_button, new Runnable() {
-                public void run() {
-                    final float avgTime = procLoop();
-                    endAsyncOp(R.id.proc_button, R.id.proc_text, avgTime);
-                }});
-
-        setButtonAction(R.id.call_button, new Runnable() {
-                public void run() {
-                    final float avgTime = callLoop("ringtone");
-                    endAsyncOp(R.id.call_button, R.id.call_text, avgTime);
-                }});
-
-        setButtonAction(R.id.call2_button, new Runnable() {
-                public void run() {
-                    final float avgTime = callLoop("XXXXXXXX");  // non-existent
-                    endAsyncOp(R.id.call2_button, R.id.call2_text, avgTime);
-                }});
-
-        setButtonAction(R.id.obtain_button, new Runnable() {
-                public void run() {
-                    final float avgTime = parcelLoop(true);
-                    endAsyncOp(R.id.obtain_button, R.id.obtain_text, avgTime);
-                }});
-
-        setButtonAction(R.id.recycle_button, new Runnable() {
-                public void run() {
-                    final float avgTime = parcelLoop(false);
-                    endAsyncOp(R.id.recycle_button, R.id.recycle_text, avgTime);
-                }});
-
-        setButtonAction(R.id.strictmode_button, new Runnable() {
-                public void run() {
-                    final float avgTime = strictModeLoop(true);
-                    endAsyncOp(R.id.strictmode_button, R.id.strictmode_text, avgTime);
-                }});
+        // Everything run from this screen is stored as one run.
+        mStore = new ResultStore(this);
+        mRunId = ResultStore.newRunId();
+        ((TextView) findViewById(R.id.run_id_text)).setText("Saving as run:\n" + mRunId);
+        findViewById(R.id.compare_runs_button).setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                startActivity(new Intent(ProviderPerfActivity.this, ResultCompareActivity.class));
+            }
+        });
 
-        setButtonAction(R.id.binderstrict_button, new Runnable() {
-                public void run() {
-                    final float avgTime = strictModeLoop(false);
-                    endAsyncOp(R.id.binderstrict_button, R.id.binderstrict_text, avgTime);
-                }});
+        setButtonAction(R.id.file_read_button, R.id.file_read_text,
+                        BenchmarkSuite.FILE_READ);
+        setButtonAction(R.id.file_write_button, R.id.file_write_text,
+                        BenchmarkSuite.FILE_WRITE);
+        setButtonAction(R.id.settings_read_button, R.id.settings_read_text,
+                        BenchmarkSuite.SETTINGS_READ);
+        setButtonAction(R.id.settings_sleep_button, R.id.settings_sleep_text,
+                        BenchmarkSuite.SETTINGS_SLEEP_READ);
+        setButtonAction(R.id.settings_write_button, R.id.settings_write_text,
+                        BenchmarkSuite.SETTINGS_WRITE);
+        setButtonAction(R.id.settings_writedup_button, R.id.settings_writedup_text,
+                        BenchmarkSuite.SETTINGS_WRITE_DUP);
+        setButtonAction(R.id.dummy_lookup_button, R.id.dummy_lookup_text,
+                        BenchmarkSuite.NOOP_XPROC);
+        setButtonAction(R.id.dummy_local_lookup_button, R.id.dummy_local_lookup_text,
+                        BenchmarkSuite.NOOP_INPROC);
+        setButtonAction(R.id.localsocket_button, R.id.localsocket_text,
+                        BenchmarkSuite.LOCAL_SOCKET);
+        setButtonAction(R.id.service_button, R.id.service_text,
+                        BenchmarkSuite.SERVICE_VOID);
+        setButtonAction(R.id.service2_button, R.id.service2_text,
+                        BenchmarkSuite.SERVICE_STRING);
+        setButtonAction(R.id.ping_media_button, R.id.ping_media_text,
+                        BenchmarkSuite.PING_MEDIA);
+        setButtonAction(R.id.ping_activity_button, R.id.ping_activity_text,
+                        BenchmarkSuite.PING_ACTIVITY);
+        setButtonAction(R.id.proc_button, R.id.proc_text,
+                        BenchmarkSuite.PROC_READ);
+        setButtonAction(R.id.call_button, R.id.call_text,
+                        BenchmarkSuite.CALL);
+        setButtonAction(R.id.call2_button, R.id.call2_text,
+                        BenchmarkSuite.CALL_MISSING);
+        setButtonAction(R.id.obtain_button, R.id.obtain_text,
+                        BenchmarkSuite.PARCEL_OBTAIN);
+        setButtonAction(R.id.recycle_button, R.id.recycle_text,
+                        BenchmarkSuite.PARCEL_RECYCLE);
+        setButtonAction(R.id.strictmode_button, R.id.strictmode_text,
+                        BenchmarkSuite.STRICTMODE);
+        setButtonAction(R.id.binderstrict_button, R.id.binderstrict_text,
+                        BenchmarkSuite.BINDER_STRICTMODE);
+        setButtonAction(R.id.concurrent_button, R.id.concurrent_text,
+                        BenchmarkSuite.SERVICE_CONCURRENT);
+        setButtonAction(R.id.concurrent_sweep_button, R.id.concurrent_sweep_text,
+                        BenchmarkSuite.SERVICE_CONCURRENT_SWEEP);
+        setButtonAction(R.id.socket_concurrent_button, R.id.socket_concurrent_text,
+                        BenchmarkSuite.LOCAL_SOCKET_CONCURRENT);
+        setButtonAction(R.id.socket_pipelined_button, R.id.socket_pipelined_text,
+                        BenchmarkSuite.LOCAL_SOCKET_PIPELINED);
+        setButtonAction(R.id.provider_insert_button, R.id.provider_insert_text,
+                        BenchmarkSuite.PROVIDER_INSERT);
+        setButtonAction(R.id.provider_bulk_insert_button, R.id.provider_bulk_insert_text,
+                        BenchmarkSuite.PROVIDER_BULK_INSERT);
+        setButtonAction(R.id.provider_apply_batch_button, R.id.provider_apply_batch_text,
+                        BenchmarkSuite.PROVIDER_APPLY_BATCH);
+        setButtonAction(R.id.provider_call_batch_button, R.id.provider_call_batch_text,
+                        BenchmarkSuite.PROVIDER_CALL_BATCH);
+        setButtonAction(R.id.cursor_walk_xproc_button, R.id.cursor_walk_xproc_text,
+                        BenchmarkSuite.CURSOR_WALK_XPROC);
+        setButtonAction(R.id.cursor_walk_inproc_button, R.id.cursor_walk_inproc_text,
+                        BenchmarkSuite.CURSOR_WALK_INPROC);
+        setButtonAction(R.id.shared_ring_button, R.id.shared_ring_text,
+                        BenchmarkSuite.SHARED_RING);
+        setButtonAction(R.id.shared_binder_bytes_button, R.id.shared_binder_bytes_text,
+                        BenchmarkSuite.SHARED_BINDER_BYTES);
+        setButtonAction(R.id.shared_binder_string_button, R.id.shared_binder_string_text,
+                        BenchmarkSuite.SHARED_BINDER_STRING);
+        setButtonAction(R.id.service_void_oneway_button, R.id.service_void_oneway_text,
+                        BenchmarkSuite.SERVICE_VOID_ONEWAY);
+        setButtonAction(R.id.service_oneway_acked_button, R.id.service_oneway_acked_text,
+                        BenchmarkSuite.SERVICE_ONEWAY_ACKED);
+        setButtonAction(R.id.io_read_raf_button, R.id.io_read_raf_text,
+                        BenchmarkSuite.IO_READ_RAF);
+        setButtonAction(R.id.io_read_channel_button, R.id.io_read_channel_text,
+                        BenchmarkSuite.IO_READ_CHANNEL);
+        setButtonAction(R.id.io_read_mmap_button, R.id.io_read_mmap_text,
+                        BenchmarkSuite.IO_READ_MMAP);
+        setButtonAction(R.id.io_read_stream_button, R.id.io_read_stream_text,
+                        BenchmarkSuite.IO_READ_STREAM);
+        setButtonAction(R.id.io_write_raf_button, R.id.io_write_raf_text,
+                        BenchmarkSuite.IO_WRITE_RAF);
+        setButtonAction(R.id.io_write_channel_button, R.id.io_write_channel_text,
+                        BenchmarkSuite.IO_WRITE_CHANNEL);
+        setButtonAction(R.id.io_write_mmap_button, R.id.io_write_mmap_text,
+                        BenchmarkSuite.IO_WRITE_MMAP);
+        setButtonAction(R.id.io_write_stream_button, R.id.io_write_stream_text,
+                        BenchmarkSuite.IO_WRITE_STREAM);
+        setButtonAction(R.id.io_write_fsync_raf_button, R.id.io_write_fsync_raf_text,
+                        BenchmarkSuite.IO_WRITE_RAF_FSYNC);
+        setButtonAction(R.id.io_write_fsync_channel_button, R.id.io_write_fsync_channel_text,
+                        BenchmarkSuite.IO_WRITE_CHANNEL_FSYNC);
+        setButtonAction(R.id.io_write_fsync_mmap_button, R.id.io_write_fsync_mmap_text,
+                        BenchmarkSuite.IO_WRITE_MMAP_FSYNC);
+        setButtonAction(R.id.io_write_fsync_stream_button, R.id.io_write_fsync_stream_text,
+                        BenchmarkSuite.IO_WRITE_STREAM_FSYNC);
+        setButtonAction(R.id.durable_nosync_button, R.id.durable_nosync_text,
+                        BenchmarkSuite.DURABLE_NO_SYNC);
+        setButtonAction(R.id.durable_fd_sync_button, R.id.durable_fd_sync_text,
+                        BenchmarkSuite.DURABLE_FD_SYNC);
+        setButtonAction(R.id.durable_force_button, R.id.durable_force_text,
+                        BenchmarkSuite.DURABLE_FORCE);
+        setButtonAction(R.id.durable_rename_button, R.id.durable_rename_text,
+                        BenchmarkSuite.DURABLE_RENAME);
+        setButtonAction(R.id.durable_sqlite_journal_button, R.id.durable_sqlite_journal_text,
+                        BenchmarkSuite.DURABLE_SQLITE_JOURNAL);
+        setButtonAction(R.id.durable_sqlite_wal_button, R.id.durable_sqlite_wal_text,
+                        BenchmarkSuite.DURABLE_SQLITE_WAL);
+        setButtonAction(R.id.proc_self_stat_reused_button, R.id.proc_self_stat_reused_text,
+                        BenchmarkSuite.PROC_SELF_STAT_REUSED);
+        setButtonAction(R.id.proc_self_stat_fresh_button, R.id.proc_self_stat_fresh_text,
+                        BenchmarkSuite.PROC_SELF_STAT_FRESH);
+        setButtonAction(R.id.proc_stat_reused_button, R.id.proc_stat_reused_text,
+                        BenchmarkSuite.PROC_STAT_REUSED);
+        setButtonAction(R.id.proc_stat_fresh_button, R.id.proc_stat_fresh_text,
+                        BenchmarkSuite.PROC_STAT_FRESH);
+        setButtonAction(R.id.proc_meminfo_reused_button, R.id.proc_meminfo_reused_text,
+                        BenchmarkSuite.PROC_MEMINFO_REUSED);
+        setButtonAction(R.id.proc_meminfo_fresh_button, R.id.proc_meminfo_fresh_text,
+                        BenchmarkSuite.PROC_MEMINFO_FRESH);
+        setButtonAction(R.id.settings_read_cached_button, R.id.settings_read_cached_text,
+                        BenchmarkSuite.SETTINGS_READ_CACHED);
+        setButtonAction(R.id.settings_read_call_button, R.id.settings_read_call_text,
+                        BenchmarkSuite.SETTINGS_READ_CALL);
+        setButtonAction(R.id.settings_read_query_button, R.id.settings_read_query_text,
+                        BenchmarkSuite.SETTINGS_READ_QUERY);
+        setButtonAction(R.id.provider_acquire_xproc_button, R.id.provider_acquire_xproc_text,
+                        BenchmarkSuite.PROVIDER_ACQUIRE_XPROC);
+        setButtonAction(R.id.provider_acquire_inproc_button, R.id.provider_acquire_inproc_text,
+                        BenchmarkSuite.PROVIDER_ACQUIRE_INPROC);
+        setButtonAction(R.id.provider_cached_xproc_button, R.id.provider_cached_xproc_text,
+                        BenchmarkSuite.PROVIDER_CACHED_XPROC);
+        setButtonAction(R.id.provider_cached_inproc_button, R.id.provider_cached_inproc_text,
+                        BenchmarkSuite.PROVIDER_CACHED_INPROC);
+        setButtonAction(R.id.provider_workload_button, R.id.provider_workload_text,
+                        BenchmarkSuite.PROVIDER_WORKLOAD);
+        setButtonAction(R.id.payload_binder_button, R.id.payload_binder_text,
+                        BenchmarkSuite.PAYLOAD_BINDER);
+        setButtonAction(R.id.payload_socket_button, R.id.payload_socket_text,
+                        BenchmarkSuite.PAYLOAD_SOCKET);
+        setButtonAction(R.id.payload_xproc_button, R.id.payload_xproc_text,
+                        BenchmarkSuite.PAYLOAD_XPROC);
+        setButtonAction(R.id.payload_inproc_button, R.id.payload_inproc_text,
+                        BenchmarkSuite.PAYLOAD_INPROC);
     }
 
     @Override public void onResume() {
         super.onResume();
-
-        bindService(new Intent(this, MiscService.class),
-                    serviceConnection, Context.BIND_AUTO_CREATE);
+        mSuite.bindService();
     }
 
     @Override public void onPause() {
         super.onPause();
-        if (serviceConnection != null) {
-            unbindService(serviceConnection);
-        }
+        mSuite.unbindService();
+    }
+
+    @Override public void onDestroy() {
+        super.onDestroy();
+        mStore.close();
     }
 
-    private void setButtonAction(int button_id, final Runnable r) {
+    private void setButtonAction(final int button_id, final int text_id, final String benchmark) {
         final Button button = (Button) findViewById(button_id);
         button.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
@@ -253,404 +233,51 @@ public class ProviderPerfActivity extends Activity {
                     if (tvIter != null) tvIter.setText(Integer.toString(mIterations));
                 }
 
+                TextView tvThreads = (TextView) findViewById(R.id.threads_edit);
+                try {
+                    mSuite.setClientThreads(Integer.parseInt(tvThreads.getText().toString()));
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Invalid thread count", e);
+                }
+                tvThreads.setText(Integer.toString(mSuite.getClientThreads()));
+
                 TextView tvTrace = (TextView) findViewById(R.id.trace_edit);
                 String name = tvTrace.getText().toString();
                 if (name != null && name.length() > 0) {
-                    mTraceName = name;
+                    mSuite.setTraceName(name);
                     Debug.startMethodTracing(name);
+                } else {
+                    mSuite.setTraceName(null);
                 }
 
-                new Thread(r).start();
+                final BenchmarkRunner runner = new BenchmarkRunner(mSuite);
+                runner.setIterations(mIterations);
+                new Thread(new Runnable() {
+                    public void run() {
+                        BenchmarkResult result = runner.run(benchmark);
+                        mStore.save(mRunId, result);
+                        endAsyncOp(button_id, text_id, result);
+                    }
+                }).start();
             }
         });
     }
 
-    private void endAsyncOp(final int button_id, final int text_id, final float avgTime) {
+    private void endAsyncOp(final int button_id, final int text_id, final BenchmarkResult result) {
         mHandler.post(new Runnable() {
             public void run() {
                 Debug.stopMethodTracing();
                 findViewById(button_id).setEnabled(true);
-                setTextTime(text_id, avgTime);
+                setTextTime(text_id, result);
             }
         });
     }
 
-    private void setTextTime(int id, float avgTime) {
+    private void setTextTime(int id, BenchmarkResult result) {
         TextView tv = (TextView) findViewById(id);
         if (tv == null) return;
         String text = tv.getText().toString();
-        text = text.substring(0, text.indexOf(':') + 1) + "\n" + avgTime + " ms avg";
+        text = text.substring(0, text.indexOf(':') + 1) + "\n" + result.toSummaryString();
         tv.setText(text);
     }
-
-    private float fileReadLoop() {
-        RandomAccessFile raf = null;
-        File filename = getFileStreamPath("test.dat");
-        try {
-            long sumNanos = 0;
-            byte[] buf = new byte[512];
-
-            raf = new RandomAccessFile(filename, "rw");
-            raf.write(buf);
-            raf.close();
-            raf = null;
-
-            // The data's almost certainly cached -- it's not clear what we're testing here
-            raf = new RandomAccessFile(filename, "r");
-            for (int i = 0; i < mIterations; i++) {
-                long lastTime = System.nanoTime();
-                raf.seek(0);
-                raf.read(buf);
-                sumNanos += System.nanoTime() - lastTime;
-            }
-
-            return (float) sumNanos / Math.max(1.0f, (float) mIterations) / 1000000.0f;
-        } catch (IOException e) {
-            Log.e(TAG, "File read failed", e);
-            return 0;
-        } finally {
-            try { if (raf != null) raf.close(); } catch (IOException e) {}
-        }
-    }
-
-    private float fileWriteLoop() {
-        RandomAccessFile raf = null;
-        File filename = getFileStreamPath("test.dat");
-        try {
-            long sumNanos = 0;
-            byte[] buf = new byte[512];
-            for (int i = 0; i < mIterations; i++) {
-                for (int j = 0; j < buf.length; j++) buf[j] = (byte) (i + j);
-                long lastTime = System.nanoTime();
-                raf = new RandomAccessFile(filename, "rw");
-                raf.write(buf);
-                raf.close();
-                raf = null;
-                sumNanos += System.nanoTime() - lastTime;
-            }
-
-            return (float) sumNanos / Math.max(1.0f, (float) mIterations) / 1000000.0f;
-        } catch (IOException e) {
-            Log.e(TAG, "File read failed", e);
-            return 0;
-        } finally {
-            try { if (raf != null) raf.close(); } catch (IOException e) {}
-        }
-    }
-
-    // Returns average cross-process dummy query time in milliseconds.
-    private float noOpProviderLoop(Uri uri) {
-        long sumNanos = 0;
-        int failures = 0;
-        int total = 0;
-        for (int i = 0; i < mIterations; i++) {
-            long duration = doNoOpLookup(uri);
-            if (duration < 0) {
-                failures++;
-            } else {
-                total++;
-                sumNanos += duration;
-            }
-        }
-        float averageMillis = (float) sumNanos /
-            (float) (total != 0 ? total : 1) /
-            1000000.0f;
-        Log.v(TAG, "dummy loop: fails=" + failures + "; total=" + total + "; goodavg ms=" + averageMillis);
-        return averageMillis;
-    }
-
-    // Returns average cross-process dummy query time in milliseconds.
-    private float callLoop(String key) {
-        IContentProvider cp = cr.acquireProvider(SYSTEM_SETTINGS_URI.getAuthority());
-
-        long sumNanos = 0;
-        int total = 0;
-
-        try {
-            for (int i = 0; i < mIterations; i++) {
-                long lastTime = System.nanoTime();
-                Bundle b = cp.call("GET_system", key, null);
-                long nowTime = System.nanoTime();
-                total++;
-                sumNanos += (nowTime - lastTime);
-            }
-        } catch (RemoteException e) {
-            return -999.0f;
-        }
-        float averageMillis = (float) sumNanos /
-            (float) (total != 0 ? total : 1) /
-            1000000.0f;
-        Log.v(TAG, "call loop: avg_ms=" + averageMillis + "; calls=" + total);
-        return averageMillis;
-    }
-
-    // Returns average time to read a /proc file in milliseconds.
-    private float procLoop() {
-        long sumNanos = 0;
-        int total = 0;
-        File f = new File("/proc/self/cmdline");
-        byte[] buf = new byte[100];
-        String value = null;
-        try {
-            for (int i = 0; i < mIterations; i++) {
-                long lastTime = System.nanoTime();
-                FileInputStream is = new FileInputStream(f);
-                int readBytes = is.read(buf, 0, 100);
-                is.close();
-                //value = new String(buf, 0, readBytes);
-                long nowTime = System.nanoTime();
-                total++;
-                sumNanos += (nowTime - lastTime);
-                lastTime = nowTime;
-            }
-        } catch (IOException e) {
-            return -999.0f;
-        }
-        float averageMillis = (float) sumNanos /
-            (float) (total != 0 ? total : 1) /
-            1000000.0f;
-        Log.v(TAG, "proc loop: total: " + total + "; avg_ms=" + averageMillis + "; value=" + value);
-        return averageMillis;
-    }
-
-    private static final String[] IGNORED_COLUMN = {"ignored"};
-
-    // Returns nanoseconds.
-    private long doNoOpLookup(Uri uri) {
-        Cursor c = null;
-        try {
-            long startTime = System.nanoTime();
-            c = cr.query(uri,
-                         IGNORED_COLUMN,  //new String[]{"ignored"},  // but allocate it for apples-to-apples
-                         "name=?",
-                         IGNORED_COLUMN,  // new String[]{"also_ignored"},  // also for equality in benchmarking
-                         null /* sort order */);
-            if (c == null) {
-                Log.w(TAG, "cursor null");
-                return -1;
-            }
-            String value = c.moveToNext() ? c.getString(0) : null;
-            long duration = System.nanoTime() - startTime;
-            //Log.v(TAG, "got value: " + value + " in " + duration);
-            return duration;
-        } catch (SQLException e) {
-            Log.w(TAG, "sqlite exception: " + e);
-            return -1;
-        } finally {
-            if (c != null) c.close();
-        }
-    }
-
-    // Returns average cross-process dummy query time in milliseconds.
-    private float serviceLoop(String value) {
-        if (mServiceStub == null) {
-            Log.v(TAG, "No service stub.");
-            return -999;
-        }
-
-        String dummy = null;
-        try {
-            if (mTraceName != null) mServiceStub.startTracing(mTraceName + ".service");
-
-            long sumNanos = 0;
-            for (int i = 0; i < mIterations; i++) {
-                long lastTime = System.nanoTime();
-                if (value == null) {
-                    mServiceStub.pingVoid();
-                } else {
-                    value = mServiceStub.pingString(value);
-                }
-                sumNanos += System.nanoTime() - lastTime;
-            }
-
-            if (mTraceName != null) mServiceStub.stopTracing();
-
-            return (float) sumNanos / Math.max(1.0f, (float) mIterations) / 1000000.0f;
-        } catch (RemoteException e) {
-            Log.e(TAG, "Binder call failed", e);
-            return -999;
-        }
-    }
-
-    // Returns average cross-process binder ping time in milliseconds.
-    private float pingServiceLoop(String service) {
-        IBinder binder = ServiceManager.getService(service);
-        if (binder == null) {
-            Log.e(TAG, "Service missing: " + service);
-            return -1.0f;
-        }
-
-        long sumNanos = 0;
-        for (int i = 0; i < mIterations; i++) {
-            long lastTime = System.nanoTime();
-            if (!binder.pingBinder()) {
-                Log.e(TAG, "Error pinging service: " + service);
-                return -1.0f;
-            }
-            sumNanos += System.nanoTime() - lastTime;
-        }
-
-        return (float) sumNanos / Math.max(1.0f, (float) mIterations) / 1000000.0f;
-    }
-
-    // Returns average milliseconds.
-    private float localSocketLoop() {
-        LocalSocket socket = null;
-        try {
-            socket = new LocalSocket();
-            Log.v(TAG, "Connecting to socket...");
-            socket.connect(new LocalSocketAddress(MiscService.SOCKET_NAME));
-            Log.v(TAG, "Connected to socket.");
-            InputStream is = socket.getInputStream();
-            OutputStream os = socket.getOutputStream();
-
-            int count = 0;
-            long sumNanos = 0;
-            for (int i = 0; i < mIterations; i++) {
-                long beforeTime = System.nanoTime();
-                int expectByte = count & 0xff;
-                os.write(expectByte);
-                int gotBackByte = is.read();
-
-                long afterTime = System.nanoTime();
-                sumNanos += (afterTime - beforeTime);
-
-                if (gotBackByte != expectByte) {
-                    Log.w(TAG, "Got wrong byte back.  Got: " + gotBackByte
-                          + "; wanted=" + expectByte);
-                    return -999.00f;
-                }
-                count++;
-            }
-            return count == 0 ? 0.0f : ((float) sumNanos / (float) count / 1000000.0f);
-        } catch (IOException e) {
-            Log.v(TAG, "error in localSocketLoop: " + e);
-            return -1.0f;
-        } finally {
-            if (socket != null) {
-                try { socket.close(); } catch (IOException e) {}
-            }
-        }
-    }
-
-    // Returns average operation time in milliseconds.
-    // obtain: true = measure obtain(), false = measure recycle()
-    private float parcelLoop(boolean obtain) {
-        long sumNanos = 0;
-        for (int i = 0; i < mIterations; i++) {
-            if (obtain) {
-                long lastTime = System.nanoTime();
-                Parcel p = Parcel.obtain();
-                sumNanos += System.nanoTime() - lastTime;
-                p.recycle();
-            } else {
-                Parcel p = Parcel.obtain();
-                long lastTime = System.nanoTime();
-                p.recycle();
-                sumNanos += System.nanoTime() - lastTime;
-            }
-        }
-
-        return (float) sumNanos / Math.max(1.0f, (float) mIterations) / 1000000.0f;
-    }
-
-    private float strictModeLoop(boolean full) {
-        StrictMode.ThreadPolicy oldPolicy = StrictMode.getThreadPolicy();
-        int oldPolicyMask = StrictMode.getThreadPolicyMask();  // hidden API
-        long sumNanos = 0;
-        StrictMode.ThreadPolicy policyA =
-                new StrictMode.ThreadPolicy.Builder().detectDiskReads().build();
-        StrictMode.ThreadPolicy policyB =
-                new StrictMode.ThreadPolicy.Builder().detectDiskWrites().build();
-        for (int i = 0; i < mIterations; i++) {
-            StrictMode.ThreadPolicy policy = ((i & 1) == 1) ? policyA : policyB;
-            int policyMask = ((i & 1) == 1) ? 1 : 2;
-            if (full) {
-                long lastTime = System.nanoTime();
-                StrictMode.setThreadPolicy(policy);
-                sumNanos += System.nanoTime() - lastTime;
-            } else {
-                long lastTime = System.nanoTime();
-                Binder.setThreadStrictModePolicy(policyMask);
-                sumNanos += System.nanoTime() - lastTime;
-            }
-        }
-        if (full) {
-            StrictMode.setThreadPolicy(oldPolicy);
-        } else {
-            Binder.setThreadStrictModePolicy(oldPolicyMask);
-        }
-        return (float) sumNanos / Math.max(1.0f, (float) mIterations) / 1000000.0f;
-    }
-
-    // Returns average milliseconds.
-    private static final int MODE_READ = 0;
-    private static final int MODE_WRITE = 1;
-    private static final int MODE_WRITE_DUP = 2;
-
-    private float settingsProviderLoop(int mode, long innerSleep) {
-        long sumMillis = 0;
-        int total = 0;
-        for (int i = 0; i < mIterations; i++) {
-            long duration = mode == MODE_READ ? settingsRead(innerSleep) : settingsWrite(mode);
-            if (duration < 0) {
-                return -999.0f;
-            }
-            total++;
-            sumMillis += duration;
-        }
-        float averageMillis = ((float) sumMillis / (float) (total != 0 ? total : 1));
-        Log.v(TAG, "settings provider; mode=" + mode + "; total=" + total +
-              "; goodavg_ms=" + averageMillis);
-        return averageMillis;
-    }
-
-    // Returns milliseconds taken, or -1 on failure.
-    private long settingsRead(long innerSleep) {
-        Cursor c = null;
-        try {
-            long startTime = SystemClock.uptimeMillis();
-            c = cr.query(SYSTEM_SETTINGS_URI,
-                         new String[]{"value"},
-                         "name=?",
-                         new String[]{"airplane_mode_on"},
-                         null /* sort order */);
-            if (c == null) {
-                Log.w(TAG, "cursor null");
-                return -1;
-            }
-            String value = c.moveToNext() ? c.getString(0) : null;
-            long duration = SystemClock.uptimeMillis() - startTime;
-            if (innerSleep > 0) {
-                try {
-                    Thread.sleep(innerSleep);
-                } catch (InterruptedException e) {}
-            }
-            return duration;
-        } catch (SQLException e) {
-            Log.w(TAG, "sqlite exception: " + e);
-            return -1;
-        } finally {
-            if (c != null) c.close();
-        }
-    }
-
-    // Returns milliseconds taken, or -1 on failure.
-    private long settingsWrite(int mode) {
-        Cursor c = null;
-        long startTime = SystemClock.uptimeMillis();
-        // The database will take care of replacing duplicates.
-        try {
-            ContentValues values = new ContentValues();
-            values.put("name", "dummy_for_testing");
-            values.put("value", (mode == MODE_WRITE ? (""+startTime) : "foo"));
-            Uri uri = cr.insert(SYSTEM_SETTINGS_URI, values);
-            Log.v(TAG, "inserted uri: " + uri);
-        } catch (SQLException e) {
-            Log.w(TAG, "sqliteexception during write: " + e);
-            return -1;
-        }
-        long duration = SystemClock.uptimeMillis() - startTime;
-        return duration;
-    }
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * The same provider workload against {@link Provider} in its own process
+ * and {@link LocalProvider} in ours, side by side, so the difference is
+ * the IPC overhead of each kind of operation:
+ *
+ *   point   query() of one row by id
+ *   scan    query() of the first {@link BenchmarkSuite#getScanRows} rows
+ *   call    call() fetching one row by id
+ *   update  update() of one row by id
+ *   insert  insert() of one row
+ *   delete  delete() of one row by id
+ *
+ * Each runs with rows whose data column is each of DATA_BYTES long.  For
+ * every operation and size the report has both latency series,
+ * xproc_us_ and inproc_us_ medians, and ipc_us_, their difference.  The
+ * main histogram holds only the cross-process samples.
+ *
+ * Before each size, the rows table is cleared and refilled (untimed) with
+ * enough rows for every operation, so ids are known and deletes always hit.
+ * Queries read every cell, so the cost of moving the data is included.
+ */
+public class ProviderWorkloadBenchmark extends Benchmark {
+
+    private static final String TAG = "ProviderWorkloadBenchmark";
+
+    private static final String[] OPS = {"point", "scan", "call", "update", "insert", "delete"};
+    private static final int OP_POINT = 0;
+    private static final int OP_SCAN = 1;
+    private static final int OP_CALL = 2;
+    private static final int OP_UPDATE = 3;
+    private static final int OP_INSERT = 4;
+    private static final int OP_DELETE = 5;
+
+    private static final int[] DATA_BYTES = {16, 256, 4096};
+
+    // Keep each refill bulkInsert well under the binder transaction limit.
+    private static final int FILL_BYTES = 256 * 1024;
+
+    private final BenchmarkSuite mSuite;
+
+    // From the most recent run(), for report(); indexed [op][size].
+    private LatencyHistogram[][] mXprocHists;
+    private LatencyHistogram[][] mInprocHists;
+
+    public ProviderWorkloadBenchmark(String name, BenchmarkSuite suite) {
+        super(name);
+        mSuite = suite;
+    }
+
+    @Override public boolean run(int iterations, LatencyHistogram hist) {
+        mXprocHists = new LatencyHistogram[OPS.length][DATA_BYTES.length];
+        mInprocHists = new LatencyHistogram[OPS.length][DATA_BYTES.length];
+        for (int s = 0; s < DATA_BYTES.length; s++) {
+            String data = makeData(DATA_BYTES[s]);
+            for (int op = 0; op < OPS.length; op++) {
+                mXprocHists[op][s] = new LatencyHistogram();
+                mInprocHists[op][s] = new LatencyHistogram();
+            }
+            try {
+                runWorkload(BenchmarkSuite.CROSS_PROC_PROVIDER_URI, data, iterations,
+                            mXprocHists, s);
+                runWorkload(BenchmarkSuite.IN_PROC_PROVIDER_URI, data, iterations,
+                            mInprocHists, s);
+            } catch (RuntimeException e) {
+                // Includes the checks below, and anything ContentResolver
+                // turned a RemoteException into.
+                Log.w(TAG, getName() + " failed at " + DATA_BYTES[s] + " bytes: " + e);
+                return false;
+            }
+            for (int op = 0; op < OPS.length; op++) {
+                hist.add(mXprocHists[op][s]);
+            }
+        }
+        return true;
+    }
+
+    private void runWorkload(Uri providerUri, String data, int iterations,
+                             LatencyHistogram[][] hists, int s) {
+        ContentResolver cr = mSuite.getContext().getContentResolver();
+        Uri rowsUri = Uri.withAppendedPath(providerUri, Provider.PATH_ROWS);
+        int scanRows = mSuite.getScanRows();
+        int rows = Math.max(iterations, scanRows);
+
+        // Clearing restarts ids at 1, so the refilled rows are 1..rows.
+        cr.delete(rowsUri, null, null);
+        fill(cr, rowsUri, rows, data);
+
+        Uri scanUri = rowsUri.buildUpon()
+                .appendQueryParameter(Provider.PARAM_LIMIT, Integer.toString(scanRows))
+                .build();
+        ContentValues updateValues = new ContentValues();
+        updateValues.put("data", data);
+        ContentValues insertValues = rowValues(0, data);
+
+        for (int i = 0; i < iterations; i++) {
+            Uri rowUri = Uri.withAppendedPath(rowsUri, Integer.toString(i % rows + 1));
+            long lastTime = System.nanoTime();
+            int got = readAll(cr.query(rowUri, null, null, null, null));
+            hists[OP_POINT][s].record(System.nanoTime() - lastTime);
+            check(got == 1, "point query got " + got + " rows");
+        }
+        for (int i = 0; i < iterations; i++) {
+            long lastTime = System.nanoTime();
+            int got = readAll(cr.query(scanUri, null, null, null, null));
+            hists[OP_SCAN][s].record(System.nanoTime() - lastTime);
+            check(got == scanRows, "scan got " + got + " of " + scanRows + " rows");
+        }
+        for (int i = 0; i < iterations; i++) {
+            String id = Integer.toString(i % rows + 1);
+            long lastTime = System.nanoTime();
+            Bundle reply = cr.call(providerUri, Provider.METHOD_GET_ROW, id, null);
+            ContentValues row = reply == null ? null
+                    : (ContentValues) reply.getParcelable(Provider.KEY_ROW);
+            String value = row == null ? null : row.getAsString("data");
+            hists[OP_CALL][s].record(System.nanoTime() - lastTime);
+            check(value != null && value.length() == data.length(), "call got no row");
+        }
+        for (int i = 0; i < iterations; i++) {
+            Uri rowUri = Uri.withAppendedPath(rowsUri, Integer.toString(i % rows + 1));
+            long lastTime = System.nanoTime();
+            int updated = cr.update(rowUri, updateValues, null, null);
+            hists[OP_UPDATE][s].record(System.nanoTime() - lastTime);
+            check(updated == 1, "update changed " + updated + " rows");
+        }
+        for (int i = 0; i < iterations; i++) {
+            long lastTime = System.nanoTime();
+            Uri inserted = cr.insert(rowsUri, insertValues);
+            hists[OP_INSERT][s].record(System.nanoTime() - lastTime);
+            check(inserted != null, "insert failed");
+        }
+        for (int i = 0; i < iterations; i++) {
+            // rows >= iterations, so each of these ids is still there.
+            Uri rowUri = Uri.withAppendedPath(rowsUri, Integer.toString(i + 1));
+            long lastTime = System.nanoTime();
+            int deleted = cr.delete(rowUri, null, null);
+            hists[OP_DELETE][s].record(System.nanoTime() - lastTime);
+            check(deleted == 1, "delete removed " + deleted + " rows");
+        }
+        cr.delete(rowsUri, null, null);
+    }
+
+    private static void fill(ContentResolver cr, Uri rowsUri, int rows, String data) {
+        int chunk = Math.max(1, FILL_BYTES / (data.length() * 2 + 64));
+        ArrayList<ContentValues> values = new ArrayList<ContentValues>(chunk);
+        for (int i = 0; i < rows; i++) {
+            values.add(rowValues(i, data));
+            if (values.size() == chunk || i == rows - 1) {
+                int inserted = cr.bulkInsert(rowsUri,
+                                             values.toArray(new ContentValues[values.size()]));
+                check(inserted == values.size(), "fill inserted " + inserted);
+                values.clear();
+            }
+        }
+    }
+
+    private static ContentValues rowValues(int i, String data) {
+        ContentValues v = new ContentValues();
+        v.put("name", "row" + i);
+        v.put("value", (long) i);
+        v.put("data", data);
+        return v;
+    }
+
+    private static String makeData(int bytes) {
+        StringBuilder sb = new StringBuilder(bytes);
+        for (int i = 0; i < bytes; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        return sb.toString();
+    }
+
+    // Reads every cell and closes the cursor; returns the row count.
+    private static int readAll(Cursor c) {
+        if (c == null) return -1;
+        try {
+            int columns = c.getColumnCount();
+            int rows = 0;
+            while (c.moveToNext()) {
+                for (int col = 0; col < columns; col++) {
+                    c.getString(col);
+                }
+                rows++;
+            }
+            return rows;
+        } finally {
+            c.close();
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) throw new IllegalStateException(message);
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        result.putExtra("scan_rows", mSuite.getScanRows());
+        for (int op = 0; op < OPS.length; op++) {
+            for (int s = 0; s < DATA_BYTES.length; s++) {
+                String key = OPS[op] + "_" + DATA_BYTES[s];
+                double xproc = mXprocHists[op][s].getPercentile(50) / 1000.0;
+                double inproc = mInprocHists[op][s].getPercentile(50) / 1000.0;
+                result.putSeries("xproc " + key, mXprocHists[op][s]);
+                result.putSeries("inproc " + key, mInprocHists[op][s]);
+                result.putExtra("xproc_us_" + key, xproc);
+                result.putExtra("inproc_us_" + key, inproc);
+                result.putExtra("ipc_us_" + key, xproc - inproc);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares a candidate run's latencies with a baseline's using the
+ * Mann-Whitney U test, which makes no assumption about the shape of the
+ * distributions; IPC latencies are anything but normal.
+ *
+ * The test is computed straight from the histograms: samples in the same
+ * bucket count as ties, and the two histograms share bucket boundaries, so
+ * no samples need keeping.  With ~3% wide buckets, differences smaller
+ * than that can't be seen.  A change is only flagged when it is both
+ * significant (p < {@link #ALPHA}) and at least {@link #MIN_CHANGE} in
+ * the median, since with enough samples any difference is significant.
+ */
+public class RegressionCheck {
+
+    public static final double ALPHA = 0.01;
+    public static final double MIN_CHANGE = 0.05;
+
+    public static final int SAME = 0;
+    public static final int REGRESSION = 1;
+    public static final int IMPROVEMENT = 2;
+
+    public static class Comparison {
+        public final String name;
+        public final long baselineMedian;
+        public final long candidateMedian;
+        /** Two-sided p-value. */
+        public final double p;
+        /** Chance a candidate sample is slower than a baseline one; 0.5 is no change. */
+        public final double probSlower;
+        public final int verdict;
+
+        Comparison(String name, long baselineMedian, long candidateMedian, double p,
+                   double probSlower, int verdict) {
+            this.name = name;
+            this.baselineMedian = baselineMedian;
+            this.candidateMedian = candidateMedian;
+            this.p = p;
+            this.probSlower = probSlower;
+            this.verdict = verdict;
+        }
+
+        public double getChange() {
+            return baselineMedian == 0 ? 0.0
+                    : (double) (candidateMedian - baselineMedian) / baselineMedian;
+        }
+
+        @Override public String toString() {
+            String flag = verdict == REGRESSION ? "REGRESSION"
+                    : verdict == IMPROVEMENT ? "improvement" : "same";
+            return String.format(Locale.US, "%s: %s p50 %.4f -> %.4f ms (%+.1f%%) p=%.2g",
+                                 name, flag, baselineMedian / 1e6, candidateMedian / 1e6,
+                                 getChange() * 100.0, p);
+        }
+    }
+
+    private RegressionCheck() {}
+
+    public static Comparison compare(String name, LatencyHistogram baseline,
+                                     LatencyHistogram candidate) {
+        double n1 = baseline.getCount();
+        double n2 = candidate.getCount();
+        long baselineMedian = baseline.getPercentile(50);
+        long candidateMedian = candidate.getPercentile(50);
+        if (n1 == 0 || n2 == 0) {
+            return new Comparison(name, baselineMedian, candidateMedian, 1.0, 0.5, SAME);
+        }
+
+        // Rank sum of the candidate, with tied samples (same bucket) given
+        // the mean of their ranks, and the tie correction term.
+        double seen = 0;
+        double rankSum = 0;
+        double ties = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            double a = baseline.getBucketCount(i);
+            double b = candidate.getBucketCount(i);
+            double t = a + b;
+            if (t == 0) continue;
+            rankSum += b * (seen + (t + 1) / 2);
+            ties += t * t * t - t;
+            seen += t;
+        }
+        double n = n1 + n2;
+        double u = rankSum - n2 * (n2 + 1) / 2;
+        double mean = n1 * n2 / 2;
+        double variance = n1 * n2 / 12 * ((n + 1) - ties / (n * (n - 1)));
+        double p = variance <= 0 ? 1.0 : erfc(Math.abs(u - mean) / Math.sqrt(2 * variance));
+
+        int verdict = SAME;
+        if (p < ALPHA) {
+            if (candidateMedian > baselineMedian * (1 + MIN_CHANGE)) {
+                verdict = REGRESSION;
+            } else if (candidateMedian < baselineMedian * (1 - MIN_CHANGE)) {
+                verdict = IMPROVEMENT;
+            }
+        }
+        return new Comparison(name, baselineMedian, candidateMedian, p, u / (n1 * n2), verdict);
+    }
+
+    /** Compares every benchmark present in both runs, in candidate order. */
+    public static List<Comparison> compareRuns(Map<String, LatencyHistogram> baseline,
+                                               Map<String, LatencyHistogram> candidate) {
+        ArrayList<Comparison> comparisons = new ArrayList<Comparison>();
+        for (Map.Entry<String, LatencyHistogram> e : candidate.entrySet()) {
+            LatencyHistogram base = baseline.get(e.getKey());
+            if (base != null) {
+                comparisons.add(compare(e.getKey(), base, e.getValue()));
+            }
+        }
+        return comparisons;
+    }
+
+    // Complementary error function, to within 1.2e-7 (Numerical Recipes erfcc).
+    static double erfc(double x) {
+        double z = Math.abs(x);
+        double t = 1.0 / (1.0 + 0.5 * z);
+        double r = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196
+                + t * (0.09678418 + t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398
+                + t * (1.48851587 + t * (-0.82215223 + t * 0.17087277)))))))));
+        return x >= 0 ? r : 2.0 - r;
+    }
+}
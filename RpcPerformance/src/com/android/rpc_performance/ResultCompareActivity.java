@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.View;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.Spinner;
+import android.widget.TextView;
+
+import java.util.List;
+
+/**
+ * Picks a baseline and a candidate run from the {@link ResultStore} and
+ * lists every benchmark they share, regressions first.
+ */
+public class ResultCompareActivity extends Activity {
+
+    private final Handler mHandler = new Handler();
+
+    private ResultStore mStore;
+    private Spinner mBaseline;
+    private Spinner mCandidate;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.compare);
+
+        mStore = new ResultStore(this);
+        List<ResultStore.Run> runs = mStore.getRuns();
+        ArrayAdapter<ResultStore.Run> adapter = new ArrayAdapter<ResultStore.Run>(
+                this, android.R.layout.simple_spinner_item, runs);
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+
+        mBaseline = (Spinner) findViewById(R.id.baseline_spinner);
+        mCandidate = (Spinner) findViewById(R.id.candidate_spinner);
+        mBaseline.setAdapter(adapter);
+        mCandidate.setAdapter(adapter);
+        // Newest run against the one before it.
+        if (runs.size() > 1) mBaseline.setSelection(1);
+
+        final Button button = (Button) findViewById(R.id.compare_button);
+        button.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                final ResultStore.Run baseline = (ResultStore.Run) mBaseline.getSelectedItem();
+                final ResultStore.Run candidate = (ResultStore.Run) mCandidate.getSelectedItem();
+                if (baseline == null || candidate == null) return;
+                button.setEnabled(false);
+                new Thread(new Runnable() {
+                    public void run() {
+                        final String report = compare(baseline.runId, candidate.runId);
+                        mHandler.post(new Runnable() {
+                            public void run() {
+                                button.setEnabled(true);
+                                ((TextView) findViewById(R.id.compare_text)).setText(report);
+                            }
+                        });
+                    }
+                }).start();
+            }
+        });
+    }
+
+    @Override public void onDestroy() {
+        super.onDestroy();
+        mStore.close();
+    }
+
+    private String compare(String baselineId, String candidateId) {
+        List<RegressionCheck.Comparison> comparisons = RegressionCheck.compareRuns(
+                mStore.getHistograms(baselineId), mStore.getHistograms(candidateId));
+        if (comparisons.isEmpty()) return "No benchmarks in common.";
+        StringBuilder sb = new StringBuilder();
+        int regressions = 0;
+        for (RegressionCheck.Comparison c : comparisons) {
+            if (c.verdict == RegressionCheck.REGRESSION) {
+                sb.append(c).append('\n');
+                regressions++;
+            }
+        }
+        for (RegressionCheck.Comparison c : comparisons) {
+            if (c.verdict != RegressionCheck.REGRESSION) sb.append(c).append('\n');
+        }
+        sb.insert(0, regressions + " regression(s) in " + comparisons.size() + " benchmarks\n\n");
+        return sb.toString();
+    }
+}
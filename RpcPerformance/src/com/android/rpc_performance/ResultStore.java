@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * On-device history of benchmark results, so runs on different builds can
+ * be compared later with {@link RegressionCheck}.
+ *
+ * Each row is one benchmark in one run: the run id, benchmark name, build
+ * fingerprint, iteration count, timestamp and the full histogram.  Runs are
+ * only ever added to; saving a benchmark again under the same run id
+ * replaces its earlier row.
+ */
+public class ResultStore extends SQLiteOpenHelper {
+
+    private static final String TAG = "ResultStore";
+
+    private static final String DATABASE_NAME = "results.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE = "results";
+    private static final String RUN_ID = "run_id";
+    private static final String BENCHMARK = "benchmark";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String ITERATIONS = "iterations";
+    private static final String TIMESTAMP = "timestamp";
+    private static final String OK = "ok";
+    private static final String HISTOGRAM = "histogram";
+
+    /** One stored run, for choosing a baseline. */
+    public static class Run {
+        public final String runId;
+        public final String fingerprint;
+        public final long timestampMillis;
+        public final int benchmarks;
+
+        Run(String runId, String fingerprint, long timestampMillis, int benchmarks) {
+            this.runId = runId;
+            this.fingerprint = fingerprint;
+            this.timestampMillis = timestampMillis;
+            this.benchmarks = benchmarks;
+        }
+
+        @Override public String toString() {
+            return runId + " (" + benchmarks + ") " + fingerprint;
+        }
+    }
+
+    public ResultStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                   + "_id INTEGER PRIMARY KEY,"
+                   + RUN_ID + " TEXT NOT NULL,"
+                   + BENCHMARK + " TEXT NOT NULL,"
+                   + FINGERPRINT + " TEXT,"
+                   + ITERATIONS + " INTEGER,"
+                   + TIMESTAMP + " INTEGER,"
+                   + OK + " INTEGER,"
+                   + HISTOGRAM + " BLOB,"
+                   + "UNIQUE (" + RUN_ID + "," + BENCHMARK + ") ON CONFLICT REPLACE)");
+    }
+
+    @Override public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /** A fresh run id: the local time to the second. */
+    public static String newRunId() {
+        return new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+    }
+
+    public void save(String runId, BenchmarkResult result) {
+        ContentValues values = new ContentValues();
+        values.put(RUN_ID, runId);
+        values.put(BENCHMARK, result.name);
+        values.put(FINGERPRINT, Build.FINGERPRINT);
+        values.put(ITERATIONS, result.iterations);
+        values.put(TIMESTAMP, result.timestampMillis);
+        values.put(OK, result.isFailed() ? 0 : 1);
+        values.put(HISTOGRAM, result.histogram.toByteArray());
+        getWritableDatabase().insert(TABLE, null, values);
+    }
+
+    public void saveAll(String runId, List<BenchmarkResult> results) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (BenchmarkResult r : results) {
+                save(runId, r);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** All runs, newest first. */
+    public List<Run> getRuns() {
+        ArrayList<Run> runs = new ArrayList<Run>();
+        Cursor c = getReadableDatabase().query(TABLE,
+                new String[]{RUN_ID, FINGERPRINT, "MAX(" + TIMESTAMP + ")", "COUNT(*)"},
+                null, null, RUN_ID, null, "MAX(" + TIMESTAMP + ") DESC");
+        try {
+            while (c.moveToNext()) {
+                runs.add(new Run(c.getString(0), c.getString(1), c.getLong(2), c.getInt(3)));
+            }
+        } finally {
+            c.close();
+        }
+        return runs;
+    }
+
+    /**
+     * The histograms of the successful benchmarks in a run, by benchmark
+     * name.  Rows that can't be decoded are skipped.
+     */
+    public LinkedHashMap<String, LatencyHistogram> getHistograms(String runId) {
+        LinkedHashMap<String, LatencyHistogram> histograms =
+                new LinkedHashMap<String, LatencyHistogram>();
+        Cursor c = getReadableDatabase().query(TABLE, new String[]{BENCHMARK, HISTOGRAM},
+                RUN_ID + "=? AND " + OK + "=1", new String[]{runId}, null, null, "_id");
+        try {
+            while (c.moveToNext()) {
+                try {
+                    histograms.put(c.getString(0), LatencyHistogram.fromByteArray(c.getBlob(1)));
+                } catch (IOException e) {
+                    Log.w(TAG, "Bad histogram for " + c.getString(0) + " in " + runId + ": " + e);
+                }
+            }
+        } finally {
+            c.close();
+        }
+        return histograms;
+    }
+}
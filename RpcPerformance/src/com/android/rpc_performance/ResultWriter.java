@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.os.Build;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes {@link BenchmarkResult}s as JSON or CSV so runs from different
+ * builds can be compared by scripts.
+ */
+public class ResultWriter {
+
+    private ResultWriter() {}
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public static String toJson(List<BenchmarkResult> results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"build\":").append(quote(Build.FINGERPRINT));
+        sb.append(",\"timestamp\":").append(System.currentTimeMillis());
+        sb.append(",\"results\":[");
+        for (int i = 0; i < results.size(); i++) {
+            BenchmarkResult r = results.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("\n{\"name\":").append(quote(r.name));
+            sb.append(",\"iterations\":").append(r.iterations);
+            sb.append(",\"warmup\":").append(r.warmupIterations);
+            sb.append(",\"trials\":").append(r.trials.size());
+            sb.append(",\"ok\":").append(!r.isFailed());
+            sb.append(",\"settled\":").append(r.isSettled());
+            sb.append(",\"trial_cv\":").append(r.getTrialCv());
+            sb.append(",\"discarded_trials\":").append(r.getDiscardedTrials());
+            sb.append(",\"outliers_mild\":").append(r.getMildOutliers());
+            sb.append(",\"outliers_extreme\":").append(r.getExtremeOutliers());
+            sb.append(",\"histogram\":").append(r.histogram.toJson());
+            sb.append(",\"extras\":{");
+            boolean first = true;
+            for (Map.Entry<String, Double> e : r.extras.entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                sb.append(quote(e.getKey())).append(':').append(jsonNumber(e.getValue()));
+            }
+            sb.append("},\"series\":{");
+            first = true;
+            for (Map.Entry<String, LatencyHistogram> e : r.series.entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                sb.append(quote(e.getKey())).append(':').append(e.getValue().toJson());
+            }
+            sb.append("}}");
+        }
+        sb.append("]}\n");
+        return sb.toString();
+    }
+
+    // JSON has no NaN or Infinity.
+    private static String jsonNumber(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return "null";
+        return Double.toString(value);
+    }
+
+    /**
+     * One row per result, plus one row per series entry named
+     * "benchmark[label]".  Extras go in a single "key=value;..." column.
+     */
+    public static String toCsv(List<BenchmarkResult> results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("build,name,iterations,warmup,trials,ok,settled,trial_cv,discarded_trials,")
+            .append("outliers_mild,outliers_extreme,")
+            .append(LatencyHistogram.CSV_HEADER).append(",extras\n");
+        for (BenchmarkResult r : results) {
+            sb.append(Build.FINGERPRINT).append(',');
+            sb.append(r.name).append(',');
+            sb.append(r.iterations).append(',');
+            sb.append(r.warmupIterations).append(',');
+            sb.append(r.trials.size()).append(',');
+            sb.append(!r.isFailed()).append(',');
+            sb.append(r.isSettled()).append(',');
+            sb.append(r.getTrialCv()).append(',');
+            sb.append(r.getDiscardedTrials()).append(',');
+            sb.append(r.getMildOutliers()).append(',');
+            sb.append(r.getExtremeOutliers()).append(',');
+            sb.append(r.histogram.toCsv()).append(',');
+            boolean first = true;
+            for (Map.Entry<String, Double> e : r.extras.entrySet()) {
+                if (!first) sb.append(';');
+                first = false;
+                sb.append(e.getKey()).append('=').append(e.getValue());
+            }
+            sb.append('\n');
+            for (Map.Entry<String, LatencyHistogram> e : r.series.entrySet()) {
+                sb.append(Build.FINGERPRINT).append(',');
+                sb.append(r.name).append('[').append(e.getKey()).append("],");
+                sb.append(r.iterations).append(',');
+                sb.append(r.warmupIterations).append(',');
+                sb.append(r.trials.size()).append(',');
+                sb.append(!r.isFailed()).append(",,,,,,");
+                sb.append(e.getValue().toCsv()).append(",\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    public static void writeJson(File file, List<BenchmarkResult> results) throws IOException {
+        write(file, toJson(results));
+    }
+
+    public static void writeCsv(File file, List<BenchmarkResult> results) throws IOException {
+        write(file, toCsv(results));
+    }
+
+    private static void write(File file, String text) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.print(text);
+            if (out.checkError()) {
+                throw new IOException("error writing " + file);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
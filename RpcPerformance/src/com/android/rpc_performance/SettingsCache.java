@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client-side cache of system settings.  The first read of a name goes to
+ * the settings provider with call("GET_system"), and registers a
+ * ContentObserver on that name's URI.  Later reads come from memory until
+ * the observer reports a change, which drops just that name.
+ *
+ * Observers are called on a binder thread (no Handler), so invalidation
+ * isn't delayed behind any looper.  A change that lands while a miss is
+ * being fetched discards the fetched value, so a stale value is never
+ * cached.  Call {@link #close} to unregister the observers.
+ */
+public class SettingsCache {
+
+    private static final String METHOD_GET = "GET_system";
+
+    // Cached null values.
+    private static final String NULL = new String("null");
+
+    private final ContentResolver mResolver;
+    private final Uri mBaseUri;
+
+    // Guarded by this.
+    private final HashMap<String, String> mValues = new HashMap<String, String>();
+    private final HashMap<String, Long> mGenerations = new HashMap<String, Long>();
+    private final ArrayList<ContentObserver> mObservers = new ArrayList<ContentObserver>();
+    // Names whose observer is still being registered.
+    private final HashSet<String> mRegistering = new HashSet<String>();
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mInvalidations = new AtomicLong();
+
+    /** @param baseUri settings table, e.g. content://settings/system */
+    public SettingsCache(ContentResolver resolver, Uri baseUri) {
+        mResolver = resolver;
+        mBaseUri = baseUri;
+    }
+
+    public String getString(String name) {
+        Long generation;
+        ContentObserver observer = null;
+        boolean cacheable;
+        synchronized (this) {
+            String value = mValues.get(name);
+            if (value != null) {
+                mHits.incrementAndGet();
+                return value == NULL ? null : value;
+            }
+            generation = mGenerations.get(name);
+            if (generation == null) {
+                generation = 0L;
+                mGenerations.put(name, generation);
+                observer = newObserver(name);
+                mObservers.add(observer);
+                mRegistering.add(name);
+            }
+            // Until the observer is registered a change could be missed, so
+            // only the thread registering it may cache what it fetches.
+            cacheable = observer != null || !mRegistering.contains(name);
+        }
+        mMisses.incrementAndGet();
+
+        // Registering is a binder call, so it happens outside the lock, but
+        // before the fetch so no change after the fetch can be missed.
+        if (observer != null) observe(name, observer);
+
+        Bundle b = mResolver.call(mBaseUri, METHOD_GET, name, null);
+        String value = b == null ? null : b.getString("value");
+        synchronized (this) {
+            // Null once close() has run; don't cache then.
+            if (cacheable && generation.equals(mGenerations.get(name))) {
+                mValues.put(name, value == null ? NULL : value);
+            }
+        }
+        return value;
+    }
+
+    private ContentObserver newObserver(final String name) {
+        return new ContentObserver(null) {
+            @Override public void onChange(boolean selfChange) {
+                invalidate(name);
+            }
+        };
+    }
+
+    private void observe(String name, ContentObserver observer) {
+        mResolver.registerContentObserver(Uri.withAppendedPath(mBaseUri, name), false, observer);
+        boolean closed;
+        synchronized (this) {
+            mRegistering.remove(name);
+            closed = !mObservers.contains(observer);
+        }
+        // close() ran before we registered, so it couldn't unregister this one.
+        if (closed) mResolver.unregisterContentObserver(observer);
+    }
+
+    private synchronized void invalidate(String name) {
+        Long generation = mGenerations.get(name);
+        if (generation == null) return;  // closed
+        mGenerations.put(name, generation + 1);
+        mValues.remove(name);
+        mInvalidations.incrementAndGet();
+    }
+
+    public synchronized void close() {
+        for (ContentObserver observer : mObservers) {
+            mResolver.unregisterContentObserver(observer);
+        }
+        mObservers.clear();
+        mRegistering.clear();
+        mValues.clear();
+        mGenerations.clear();
+    }
+
+    public long getHits() {
+        return mHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    public long getInvalidations() {
+        return mInvalidations.get();
+    }
+
+    public void resetCounters() {
+        mHits.set(0);
+        mMisses.set(0);
+        mInvalidations.set(0);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * Reads one system setting repeatedly while another thread rewrites it
+ * every {@link #WRITE_INTERVAL_MS}, three ways:
+ *
+ *   MODE_CACHED  through a {@link SettingsCache}
+ *   MODE_CALL    ContentResolver.call("GET_system")
+ *   MODE_QUERY   ContentResolver.query(), like settings_read
+ *
+ * The cached mode also reports the cache's hits, misses, invalidations
+ * and hit rate, so its latency can be read against how often the writer
+ * forced it back to the provider.
+ */
+public class SettingsReadBenchmark extends Benchmark {
+
+    private static final String TAG = "SettingsReadBenchmark";
+
+    public static final int MODE_CACHED = 0;
+    public static final int MODE_CALL = 1;
+    public static final int MODE_QUERY = 2;
+
+    static final String KEY = "dummy_for_testing";
+    static final long WRITE_INTERVAL_MS = 20;
+
+    private final BenchmarkSuite mSuite;
+    private final int mMode;
+
+    // From the most recent run(), for report().
+    private long mWrites;
+    private long mHits;
+    private long mMisses;
+    private long mInvalidations;
+
+    public SettingsReadBenchmark(String name, BenchmarkSuite suite, int mode) {
+        super(name);
+        mSuite = suite;
+        mMode = mode;
+    }
+
+    @Override public boolean run(int iterations, LatencyHistogram hist) {
+        final ContentResolver cr = mSuite.getContext().getContentResolver();
+        final long[] writes = new long[1];
+        final boolean[] stop = new boolean[1];
+        Thread writer = new Thread("settings-writer") {
+            @Override public void run() {
+                ContentValues values = new ContentValues();
+                values.put("name", KEY);
+                while (true) {
+                    synchronized (stop) {
+                        if (stop[0]) return;
+                        try {
+                            stop.wait(WRITE_INTERVAL_MS);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        if (stop[0]) return;
+                    }
+                    values.put("value", Long.toString(System.nanoTime()));
+                    cr.insert(BenchmarkSuite.SYSTEM_SETTINGS_URI, values);
+                    writes[0]++;
+                }
+            }
+        };
+
+        SettingsCache cache = mMode == MODE_CACHED
+                ? new SettingsCache(cr, BenchmarkSuite.SYSTEM_SETTINGS_URI) : null;
+        writer.start();
+        try {
+            for (int i = 0; i < iterations; i++) {
+                long lastTime = System.nanoTime();
+                switch (mMode) {
+                    case MODE_CACHED:
+                        cache.getString(KEY);
+                        break;
+                    case MODE_CALL: {
+                        Bundle b = cr.call(BenchmarkSuite.SYSTEM_SETTINGS_URI, "GET_system",
+                                           KEY, null);
+                        if (b != null) b.getString("value");
+                        break;
+                    }
+                    default: {
+                        Cursor c = cr.query(BenchmarkSuite.SYSTEM_SETTINGS_URI,
+                                            new String[]{"value"}, "name=?",
+                                            new String[]{KEY}, null);
+                        if (c == null) {
+                            Log.w(TAG, "cursor null");
+                            return false;
+                        }
+                        if (c.moveToNext()) c.getString(0);
+                        c.close();
+                        break;
+                    }
+                }
+                hist.record(System.nanoTime() - lastTime);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, getName() + " failed: " + e);
+            return false;
+        } finally {
+            synchronized (stop) {
+                stop[0] = true;
+                stop.notifyAll();
+            }
+            try {
+                writer.join();
+            } catch (InterruptedException e) {}
+            if (cache != null) cache.close();
+        }
+
+        mWrites = writes[0];
+        if (cache != null) {
+            mHits = cache.getHits();
+            mMisses = cache.getMisses();
+            mInvalidations = cache.getInvalidations();
+        }
+        return true;
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        result.putExtra("writer_writes", mWrites);
+        if (mMode == MODE_CACHED) {
+            long reads = mHits + mMisses;
+            result.putExtra("cache_hits", mHits);
+            result.putExtra("cache_misses", mMisses);
+            result.putExtra("cache_invalidations", mInvalidations);
+            result.putExtra("cache_hit_rate", reads == 0 ? 0.0 : (double) mHits / reads);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.os.MemoryFile;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Sends large payloads, 64KB up to {@link BenchmarkSuite#getMaxSharedBytes}
+ * (powers of two), from the activity to {@link MiscService} one way, over
+ * one of three transports:
+ *
+ *   TRANSPORT_SHARED  an ashmem ring handed to the service once
+ *   TRANSPORT_BYTES   sinkBytes() in CHUNK_BYTES pieces
+ *   TRANSPORT_STRING  pingString() in CHUNK_BYTES pieces
+ *
+ * The shared ring is a MemoryFile of {@link BenchmarkSuite#getRingBytes}
+ * mapped by the service.  The writer copies the next contiguous piece in
+ * at its head, wrapping at the end, and drainSharedRing() tells the
+ * service where it is; the service sums it in place and the call's return
+ * frees the space again.  So each byte crosses with one copy, into the
+ * ring, against binder's copy into and out of the transaction buffer.
+ *
+ * Binder calls are limited to about 1MB a transaction, so the binder
+ * transports go in chunks.  pingString echoes and carries UTF-16, so it
+ * moves four times the bytes of the others; that's the cost of using it
+ * for bulk data.  Strings are built before timing.  Payloads over 64KB run
+ * iterations * 64KB / size transfers (at least one).
+ */
+public class SharedMemoryBenchmark extends Benchmark {
+
+    private static final String TAG = "SharedMemoryBenchmark";
+
+    public static final int TRANSPORT_SHARED = 0;
+    public static final int TRANSPORT_BYTES = 1;
+    public static final int TRANSPORT_STRING = 2;
+
+    private static final int MIN_BYTES = 64 * 1024;
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private final BenchmarkSuite mSuite;
+    private final int mTransport;
+
+    private MemoryFile mRing;
+    private int mRingHead;
+
+    // From the most recent run(), for report().
+    private int[] mSizes;
+    private LatencyHistogram[] mHists;
+
+    public SharedMemoryBenchmark(String name, BenchmarkSuite suite, int transport) {
+        super(name);
+        mSuite = suite;
+        mTransport = transport;
+    }
+
+    @Override public boolean run(int iterations, LatencyHistogram hist) {
+        IService stub = mSuite.getServiceStub();
+        if (stub == null) {
+            Log.v(TAG, "No service stub.");
+            return false;
+        }
+        int maxBytes = Math.max(MIN_BYTES, mSuite.getMaxSharedBytes());
+        int steps = Integer.numberOfLeadingZeros(MIN_BYTES)
+                - Integer.numberOfLeadingZeros(maxBytes) + 1;
+        mSizes = new int[steps];
+        mHists = new LatencyHistogram[steps];
+
+        try {
+            if (mTransport == TRANSPORT_SHARED && !attachRing(stub)) {
+                return false;
+            }
+            for (int i = 0; i < steps; i++) {
+                int size = MIN_BYTES << i;
+                byte[] payload = new byte[size];
+                long expectedSum = 0;
+                for (int j = 0; j < size; j++) {
+                    payload[j] = (byte) (j * 31);
+                    expectedSum += payload[j];
+                }
+                String[] strings = mTransport == TRANSPORT_STRING ? toStrings(payload) : null;
+
+                int transfers = Math.max(1, (int) ((long) iterations * MIN_BYTES / size));
+                LatencyHistogram sizeHist = new LatencyHistogram();
+                for (int t = 0; t < transfers; t++) {
+                    long lastTime = System.nanoTime();
+                    boolean ok;
+                    switch (mTransport) {
+                        case TRANSPORT_SHARED:
+                            ok = sendShared(stub, payload) == expectedSum;
+                            break;
+                        case TRANSPORT_BYTES:
+                            ok = sendBytes(stub, payload) == expectedSum;
+                            break;
+                        default:
+                            ok = sendStrings(stub, strings) == size;
+                            break;
+                    }
+                    sizeHist.record(System.nanoTime() - lastTime);
+                    if (!ok) {
+                        Log.w(TAG, getName() + ": bad transfer of " + size + " bytes");
+                        return false;
+                    }
+                }
+                mSizes[i] = size;
+                mHists[i] = sizeHist;
+                hist.add(sizeHist);
+            }
+            return true;
+        } catch (RemoteException e) {
+            Log.w(TAG, getName() + " failed: " + e);
+            return false;
+        } catch (IOException e) {
+            Log.w(TAG, getName() + " failed: " + e);
+            return false;
+        } finally {
+            if (mRing != null) {
+                mRing.close();
+                mRing = null;
+            }
+        }
+    }
+
+    private boolean attachRing(IService stub) throws IOException, RemoteException {
+        int capacity = mSuite.getRingBytes();
+        mRing = new MemoryFile("rpc_performance_ring", capacity);
+        mRingHead = 0;
+        ParcelFileDescriptor fd = ParcelFileDescriptor.dup(mRing.getFileDescriptor());
+        try {
+            return stub.attachSharedRing(fd, capacity);
+        } finally {
+            fd.close();
+        }
+    }
+
+    // Returns the sum the service saw, or -1.
+    private long sendShared(IService stub, byte[] payload) throws IOException, RemoteException {
+        int capacity = mRing.length();
+        long sum = 0;
+        int done = 0;
+        while (done < payload.length) {
+            int n = Math.min(payload.length - done, capacity - mRingHead);
+            mRing.writeBytes(payload, done, mRingHead, n);
+            long drained = stub.drainSharedRing(mRingHead, n);
+            if (drained == -1) return -1;
+            sum += drained;
+            mRingHead = (mRingHead + n) % capacity;
+            done += n;
+        }
+        return sum;
+    }
+
+    private static long sendBytes(IService stub, byte[] payload) throws RemoteException {
+        byte[] chunk = new byte[Math.min(CHUNK_BYTES, payload.length)];
+        long sum = 0;
+        for (int done = 0; done < payload.length; done += chunk.length) {
+            System.arraycopy(payload, done, chunk, 0, chunk.length);
+            sum += stub.sinkBytes(chunk);
+        }
+        return sum;
+    }
+
+    // Returns the number of characters echoed back.
+    private static long sendStrings(IService stub, String[] strings) throws RemoteException {
+        long chars = 0;
+        for (String s : strings) {
+            String back = stub.pingString(s);
+            if (back != null) chars += back.length();
+        }
+        return chars;
+    }
+
+    private static String[] toStrings(byte[] payload) throws UnsupportedEncodingException {
+        int count = (payload.length + CHUNK_BYTES - 1) / CHUNK_BYTES;
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            int offset = i * CHUNK_BYTES;
+            strings[i] = new String(payload, offset, Math.min(CHUNK_BYTES, payload.length - offset),
+                                    "ISO-8859-1");
+        }
+        return strings;
+    }
+
+    @Override public void report(BenchmarkResult result) {
+        if (mTransport == TRANSPORT_SHARED) {
+            result.putExtra("ring_bytes", mSuite.getRingBytes());
+        } else {
+            result.putExtra("chunk_bytes", CHUNK_BYTES);
+        }
+        for (int i = 0; i < mSizes.length; i++) {
+            if (mHists[i] == null) break;
+            int size = mSizes[i];
+            long median = mHists[i].getPercentile(50);
+            result.putSeries("bytes=" + size, mHists[i]);
+            result.putExtra("mb_per_sec_" + size,
+                            median <= 0 ? 0.0 : size / (median / 1e9) / (1024.0 * 1024.0));
+        }
+    }
+}
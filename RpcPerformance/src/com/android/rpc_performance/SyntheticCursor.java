@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.rpc_performance;
+
+import android.database.AbstractCursor;
+
+/**
+ * Read-only cursor of generated rows: an "_id" column followed by N string
+ * columns of a fixed width.  Values are made up on demand, so the provider
+ * can serve any number of rows without holding them; what's measured is
+ * filling CursorWindows and paging them across, not building the result.
+ */
+public class SyntheticCursor extends AbstractCursor {
+
+    private final int mRows;
+    private final String[] mColumnNames;
+    private final String mCell;
+
+    public SyntheticCursor(int rows, int columns, int cellBytes) {
+        mRows = rows;
+        mColumnNames = new String[columns + 1];
+        mColumnNames[0] = "_id";
+        for (int i = 1; i <= columns; i++) {
+            mColumnNames[i] = "c" + i;
+        }
+        char[] cell = new char[cellBytes];
+        for (int i = 0; i < cellBytes; i++) {
+            cell[i] = (char) ('a' + i % 26);
+        }
+        mCell = new String(cell);
+    }
+
+    @Override public int getCount() {
+        return mRows;
+    }
+
+    @Override public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override public int getType(int column) {
+        return column == 0 ? FIELD_TYPE_INTEGER : FIELD_TYPE_STRING;
+    }
+
+    @Override public String getString(int column) {
+        return column == 0 ? Integer.toString(mPos) : mCell;
+    }
+
+    @Override public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override public long getLong(int column) {
+        return column == 0 ? mPos : 0;
+    }
+
+    @Override public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override public boolean isNull(int column) {
+        return false;
+    }
+}